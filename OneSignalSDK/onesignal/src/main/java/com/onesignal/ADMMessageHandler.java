@@ -49,10 +49,11 @@ public class ADMMessageHandler extends ADMMessageHandlerBase {
    protected void onMessage(Intent intent) {
       Bundle bundle = intent.getExtras();
 
-      if (NotificationBundleProcessor.processBundle(this, bundle))
+      NotificationMessage message = NotificationBundleProcessor.processBundle(this, bundle);
+      if (message == null)
          return;
 
-      NotificationBundleProcessor.Process(this, false, NotificationBundleProcessor.bundleAsJSONObject(bundle), null);
+      NotificationBundleProcessor.Process(this, false, message, null);
    }
 
    @Override
@@ -41,6 +41,16 @@ class BadgeCountUpdater {
    // Cache for manifest setting.
    private static int badgesEnabled = -1;
 
+   // Last count given to the launcher, -1 if none yet this process.
+   private static int lastBadgeCount = -1;
+
+   // Answered from notification_unread_created_time_idx, no table rows are read.
+   private static final String UNREAD_COUNT_QUERY =
+       "SELECT COUNT(*) FROM " + OneSignalDbContract.NotificationTable.TABLE_NAME +
+       " WHERE " + OneSignalDbContract.NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
+          OneSignalDbContract.NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
+          OneSignalDbContract.NotificationTable.COLUMN_NAME_IS_SUMMARY + " = 0";
+
    private static boolean isBadgesEnabled(Context context) {
       if (badgesEnabled != -1)
          return (badgesEnabled == 1);
@@ -62,26 +72,22 @@ class BadgeCountUpdater {
       if (!isBadgesEnabled(context))
          return;
 
-      Cursor cursor = readableDb.query(
-          OneSignalDbContract.NotificationTable.TABLE_NAME,
-          null,
-          OneSignalDbContract.NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +  // Where String
-             OneSignalDbContract.NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
-             OneSignalDbContract.NotificationTable.COLUMN_NAME_IS_SUMMARY + " = 0 ",
-          null,                                                    // Where args
-          null,                                                    // group by
-          null,                                                    // filter by row groups
-          null                                                     // sort order, new to old
-      );
-
-      updateCount(cursor.getCount(), context);
+      Cursor cursor = readableDb.rawQuery(UNREAD_COUNT_QUERY, null);
+      int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
       cursor.close();
+
+      updateCount(count, context);
    }
 
    static void updateCount(int count, Context context) {
       if (!isBadgesEnabled(context))
          return;
 
+      // Launchers redraw the icon on every call, skip it when nothing changed.
+      if (count == lastBadgeCount)
+         return;
+      lastBadgeCount = count;
+
       // Can throw if badges are not support on the device.
       //  Or app does not have a default launch Activity.
       try {
@@ -66,11 +66,12 @@ public class GcmBroadcastReceiver extends WakefulBroadcastReceiver {
          return;
 
       // Return if the notification will NOT be handled by normal GcmIntentService display flow.
-      if (NotificationBundleProcessor.processBundle(context, bundle))
+      NotificationMessage message = NotificationBundleProcessor.processBundle(context, bundle);
+      if (message == null)
          return;
 
       Intent intentForService = new Intent();
-      intentForService.putExtra("json_payload", NotificationBundleProcessor.bundleAsJSONObject(bundle).toString());
+      intentForService.putExtra("json_payload", message.getJsonString());
       intentForService.setComponent(new ComponentName(context.getPackageName(),
                                     GcmIntentService.class.getName()));
       startWakefulService(context, intentForService);
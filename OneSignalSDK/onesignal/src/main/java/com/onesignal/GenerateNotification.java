@@ -28,9 +28,7 @@
 package com.onesignal;
 
 import java.math.BigInteger;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
@@ -51,10 +49,8 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.support.v4.app.NotificationCompat;
@@ -68,6 +64,10 @@ import com.onesignal.OneSignalDbContract.NotificationTable;
 import static com.onesignal.OSUtils.getResourceString;
 
 class GenerateNotification {
+   // Tallest a BigPictureStyle image is shown and the height of onesignal_bgimage_notif_layout.
+   private static final int BIG_PICTURE_MAX_HEIGHT_DP = 256;
+   private static final int BG_IMAGE_HEIGHT_DP = 64;
+
    private static Context currentContext = null;
    private static String packageName = null;
    private static Resources contextResources = null;
@@ -90,18 +90,19 @@ class GenerateNotification {
          notificationOpenedClass = NotificationOpenedActivity.class;
    }
 
-   static void fromJsonPayload(Context inContext, boolean restoring, int notificationId, JSONObject jsonPayload, boolean showAsAlert, NotificationExtenderService.OverrideSettings overrideSettings) {
+   static void fromJsonPayload(Context inContext, boolean restoring, int notificationId, NotificationMessage message, boolean showAsAlert, NotificationExtenderService.OverrideSettings overrideSettings) {
       setStatics(inContext);
 
       if (!restoring && showAsAlert && ActivityLifecycleHandler.curActivity != null) {
-         showNotificationAsAlert(jsonPayload, ActivityLifecycleHandler.curActivity, notificationId);
+         showNotificationAsAlert(message, ActivityLifecycleHandler.curActivity, notificationId);
          return;
       }
 
-      showNotification(notificationId, restoring, jsonPayload, overrideSettings);
+      showNotification(notificationId, restoring, message, overrideSettings);
    }
 
-   private static void showNotificationAsAlert(final JSONObject gcmJson, final Activity activity, final int notificationId) {
+   private static void showNotificationAsAlert(final NotificationMessage message, final Activity activity, final int notificationId) {
+      final JSONObject gcmJson = message.getJson();
       activity.runOnUiThread(new Runnable() {
          @Override
          public void run() {
@@ -112,14 +113,14 @@ class GenerateNotification {
             List<String> buttonsLabels = new ArrayList<String>();
             List<String> buttonIds = new ArrayList<String>();
 
-            addAlertButtons(activity, gcmJson, buttonsLabels, buttonIds);
+            addAlertButtons(activity, message, buttonsLabels, buttonIds);
 
             final List<String> finalButtonIds = buttonIds;
 
             Intent buttonIntent = getNewBaseIntent(notificationId);
             buttonIntent.putExtra("action_button", true);
             buttonIntent.putExtra("from_alert", true);
-            buttonIntent.putExtra("onesignal_data", gcmJson.toString());
+            buttonIntent.putExtra("onesignal_data", message.getJsonString());
             if (gcmJson.has("grp"))
                buttonIntent.putExtra("grp", gcmJson.optString("grp"));
 
@@ -131,8 +132,7 @@ class GenerateNotification {
 
                   if (finalButtonIds.size() > 1) {
                      try {
-                        JSONObject newJsonData = new JSONObject(gcmJson.toString());
-                        newJsonData.put("actionSelected", finalButtonIds.get(index));
+                        JSONObject newJsonData = message.copyWith("actionSelected", finalButtonIds.get(index));
                         finalButtonIntent.putExtra("onesignal_data", newJsonData.toString());
 
                         NotificationOpenedProcessor.processIntent(activity, finalButtonIntent);
@@ -200,7 +200,7 @@ class GenerateNotification {
       return intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_MULTIPLE_TASK | Intent.FLAG_ACTIVITY_NO_ANIMATION);
    }
 
-   private static NotificationCompat.Builder getBaseNotificationCompatBuilder(JSONObject gcmBundle) {
+   private static NotificationCompat.Builder getBaseNotificationCompatBuilder(JSONObject gcmBundle, NotificationMediaPrefetcher.Result media) {
       int notificationIcon = getSmallIconId(gcmBundle);
 
       int notificationDefaults = 0;
@@ -243,11 +243,11 @@ class GenerateNotification {
          notifBuilder.setVisibility(visibility);
       } catch (Throwable t) {} // Can throw if an old android support lib is used or parse error
 
-      Bitmap largeIcon = getLargeIcon(gcmBundle);
+      Bitmap largeIcon = getLargeIcon(gcmBundle, media);
       if (largeIcon != null)
          notifBuilder.setLargeIcon(largeIcon);
 
-      Bitmap bigPictureIcon = getBitmap(gcmBundle.optString("bicon", null));
+      Bitmap bigPictureIcon = getBitmap(gcmBundle.optString("bicon", null), getScreenWidth(), dpToPx(BIG_PICTURE_MAX_HEIGHT_DP), media);
       if (bigPictureIcon != null)
          notifBuilder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(bigPictureIcon).setSummaryText(message));
 
@@ -275,16 +275,47 @@ class GenerateNotification {
    }
 
    // Put the message into a notification and post it.
-   static void showNotification(int notificationId, boolean restoring, JSONObject gcmBundle, NotificationExtenderService.OverrideSettings overrideSettings) {
+   //   The prefetched media is passed down rather than kept in a static since restores build notifications on their own thread.
+   static void showNotification(int notificationId, boolean restoring, NotificationMessage message, NotificationExtenderService.OverrideSettings overrideSettings) {
+      NotificationMediaPrefetcher.Result media = NotificationMediaPrefetcher.prefetch(currentContext, getMediaRequests(message.getJson()));
+      showNotificationWithMedia(notificationId, restoring, message, overrideSettings, media);
+   }
+
+   // Remote images this notification shows, at the size of their slot.
+   private static List<NotificationMediaPrefetcher.Request> getMediaRequests(JSONObject gcmBundle) {
+      List<NotificationMediaPrefetcher.Request> requests = new ArrayList<>();
+
+      if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB)
+         addMediaRequest(requests, gcmBundle.optString("licon", null), getLargeIconWidth(), getLargeIconHeight());
+      addMediaRequest(requests, gcmBundle.optString("bicon", null), getScreenWidth(), dpToPx(BIG_PICTURE_MAX_HEIGHT_DP));
+
+      if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+         try {
+            String jsonStrBgImage = gcmBundle.optString("bg_img", null);
+            if (jsonStrBgImage != null)
+               addMediaRequest(requests, new JSONObject(jsonStrBgImage).optString("img", null), getScreenWidth(), dpToPx(BG_IMAGE_HEIGHT_DP));
+         } catch (Throwable t) {}
+      }
+
+      return requests;
+   }
+
+   private static void addMediaRequest(List<NotificationMediaPrefetcher.Request> requests, String location, int reqWidth, int reqHeight) {
+      if (location != null && (location.startsWith("http://") || location.startsWith("https://")))
+         requests.add(new NotificationMediaPrefetcher.Request(location, reqWidth, reqHeight));
+   }
+
+   private static void showNotificationWithMedia(int notificationId, boolean restoring, NotificationMessage message, NotificationExtenderService.OverrideSettings overrideSettings, NotificationMediaPrefetcher.Result media) {
       Random random = new Random();
+      JSONObject gcmBundle = message.getJson();
 
       String group = gcmBundle.optString("grp", null);
 
-      NotificationCompat.Builder notifBuilder = getBaseNotificationCompatBuilder(gcmBundle);
+      NotificationCompat.Builder notifBuilder = getBaseNotificationCompatBuilder(gcmBundle, media);
 
-      addNotificationActionButtons(gcmBundle, notifBuilder, notificationId, null);
+      addNotificationActionButtons(message, notifBuilder, notificationId, null);
       try {
-         addBackgroundImage(gcmBundle, notifBuilder);
+         addBackgroundImage(gcmBundle, notifBuilder, media);
       } catch (Throwable t) {
          OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Could not set background notification image!", t);
       }
@@ -293,16 +324,16 @@ class GenerateNotification {
          notifBuilder.extend(overrideSettings.extender);
 
       if (group != null) {
-         PendingIntent contentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(notificationId).putExtra("onesignal_data", gcmBundle.toString()).putExtra("grp", group));
+         PendingIntent contentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(notificationId).putExtra("onesignal_data", message.getJsonString()).putExtra("grp", group));
          notifBuilder.setContentIntent(contentIntent);
          PendingIntent deleteIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseDeleteIntent(notificationId).putExtra("grp", group));
          notifBuilder.setDeleteIntent(deleteIntent);
          notifBuilder.setGroup(group);
 
-         createSummaryNotification(restoring, gcmBundle);
+         createSummaryNotification(null, restoring, message, media);
       }
       else {
-         PendingIntent contentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(notificationId).putExtra("onesignal_data", gcmBundle.toString()));
+         PendingIntent contentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(notificationId).putExtra("onesignal_data", message.getJsonString()));
          notifBuilder.setContentIntent(contentIntent);
          PendingIntent deleteIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseDeleteIntent(notificationId));
          notifBuilder.setDeleteIntent(deleteIntent);
@@ -321,94 +352,58 @@ class GenerateNotification {
       }
    }
 
-   private static void createSummaryNotification(boolean restoring, JSONObject gcmBundle) {
-      createSummaryNotification(null, restoring, gcmBundle);
+   static void createSummaryNotification(Context inContext,  boolean updateSummary, NotificationMessage message) {
+      createSummaryNotification(inContext, updateSummary, message, null);
    }
 
-   static void createSummaryNotification(Context inContext,  boolean updateSummary, JSONObject gcmBundle) {
+   private static void createSummaryNotification(Context inContext,  boolean updateSummary, NotificationMessage message, NotificationMediaPrefetcher.Result media) {
       if (updateSummary && inContext != null)
          setStatics(inContext);
 
-      String group = gcmBundle.optString("grp", null);
+      final String group = message.getGroup();
 
       Random random = new Random();
       PendingIntent summaryDeleteIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseDeleteIntent(0).putExtra("summary", group));
 
-      OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(currentContext);
-      SQLiteDatabase readableDb = dbHelper.getReadableDatabase();
-
-      String[] retColumn = { NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID,
-                             NotificationTable.COLUMN_NAME_FULL_DATA,
-                             NotificationTable.COLUMN_NAME_IS_SUMMARY,
-                             NotificationTable.COLUMN_NAME_TITLE,
-                             NotificationTable.COLUMN_NAME_MESSAGE };
-
-      String[] whereArgs = { group };
-
-      Cursor cursor = readableDb.query(
-                     NotificationTable.TABLE_NAME,
-                     retColumn,
-                     NotificationTable.COLUMN_NAME_GROUP_ID + " = ? AND " +   // Where String
-                     NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
-                     NotificationTable.COLUMN_NAME_OPENED + " = 0",
-                     whereArgs,
-                     null,                                                    // group by
-                     null,                                                    // filter by row groups
-                     NotificationTable._ID + " DESC"                          // sort order, new to old
-      );
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(currentContext).getReadableDatabase();
+      NotificationGroupIndex.Group groupState = NotificationGroupIndex.get(readableDb, group);
 
       Notification summaryNotification;
-      int summaryNotificationId = random.nextInt();
+      int summaryNotificationId = groupState.summaryId != null ? groupState.summaryId : random.nextInt();
+      boolean hasRecords = groupState.summaryId != null || groupState.count > 0;
+
+      Collection<SpannableString> summeryList = new ArrayList<>();
+      for (NotificationGroupIndex.Line line : groupState.lines) {
+         String title = line.title;
+         if (title == null)
+            title = "";
+         else
+            title += " ";
 
-      String firstFullData = null;
-      Collection<SpannableString> summeryList = null;
+         // Html.fromHtml("<strong>" + line1Title + "</strong> " + gcmBundle.getString("alert"));
 
-      try {
-         if (cursor.moveToFirst()) {
-            SpannableString spannableString;
-            summeryList = new ArrayList<>();
-
-            do {
-               if (cursor.getInt(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_IS_SUMMARY)) == 1)
-                  summaryNotificationId = cursor.getInt(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID));
-               else {
-                  String title = cursor.getString(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_TITLE));
-                  if (title == null)
-                     title = "";
-                  else
-                     title += " ";
-
-                  // Html.fromHtml("<strong>" + line1Title + "</strong> " + gcmBundle.getString("alert"));
-
-                  String msg = cursor.getString(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_MESSAGE));
-
-                  spannableString = new SpannableString(title + msg);
-                  if (title.length() > 0)
-                     spannableString.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, title.length(), 0);
-                  summeryList.add(spannableString);
-
-                  if (firstFullData == null)
-                     firstFullData = cursor.getString(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_FULL_DATA));
-               }
-            } while (cursor.moveToNext());
+         SpannableString spannableString = new SpannableString(title + line.message);
+         if (title.length() > 0)
+            spannableString.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, title.length(), 0);
+         summeryList.add(spannableString);
+      }
 
-            if (updateSummary && firstFullData != null) {
-               try {
-                  gcmBundle = new JSONObject(firstFullData);
-               } catch (JSONException e) {
-                  e.printStackTrace();
-               }
-            }
+      String firstFullData = null;
+      if (updateSummary && !groupState.lines.isEmpty())
+         firstFullData = NotificationPayloadStore.get(readableDb, groupState.lines.get(0).rowId);
+
+      if (firstFullData != null) {
+         try {
+            message = NotificationMessage.fromJson(firstFullData);
+         } catch (JSONException e) {
+            e.printStackTrace();
          }
       }
-      finally {
-         if (cursor != null && !cursor.isClosed())
-            cursor.close();
-      }
 
+      JSONObject gcmBundle = message.getJson();
 
-      if (summeryList != null && (!updateSummary || summeryList.size() > 1)) {
-         int notificationCount = summeryList.size() + (updateSummary ? 0 : 1);
+      if (hasRecords && (!updateSummary || groupState.count > 1)) {
+         int notificationCount = groupState.count + (updateSummary ? 0 : 1);
 
          String summaryMessage = gcmBundle.optString("grp_msg", null);
          if (summaryMessage == null)
@@ -428,7 +423,7 @@ class GenerateNotification {
 
          PendingIntent summaryContentIntent = getNewActionPendingIntent(random.nextInt(), summaryIntent);
 
-         NotificationCompat.Builder summeryBuilder = getBaseNotificationCompatBuilder(gcmBundle);
+         NotificationCompat.Builder summeryBuilder = getBaseNotificationCompatBuilder(gcmBundle, media);
          if (updateSummary)
             removeNotifyOptions(summeryBuilder);
 
@@ -455,15 +450,19 @@ class GenerateNotification {
             else
                line1Title += " ";
 
-            String message = gcmBundle.optString("alert");
-            SpannableString spannableString = new SpannableString(line1Title + message);
+            String line1Message = gcmBundle.optString("alert");
+            SpannableString spannableString = new SpannableString(line1Title + line1Message);
             if (line1Title.length() > 0)
                spannableString.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, line1Title.length(), 0);
             inboxStyle.addLine(spannableString);
          }
 
-         for(SpannableString line : summeryList)
+         int lineCount = updateSummary ? 0 : 1;
+         for(SpannableString line : summeryList) {
+            if (lineCount++ == NotificationGroupIndex.MAX_LINES)
+               break;
             inboxStyle.addLine(line);
+         }
          inboxStyle.setBigContentTitle(summaryMessage);
          summeryBuilder.setStyle(inboxStyle);
 
@@ -471,29 +470,27 @@ class GenerateNotification {
       }
       else {
          // There currently isn't a visible notification from this group, save the group summary notification id and post it so it looks like a normal notification.
-         SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
-         writableDb.beginTransaction();
-
-         try {
-            ContentValues values = new ContentValues();
-            values.put(NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID, summaryNotificationId);
-            values.put(NotificationTable.COLUMN_NAME_GROUP_ID, group);
-            values.put(NotificationTable.COLUMN_NAME_IS_SUMMARY, 1);
-            writableDb.insertOrThrow(NotificationTable.TABLE_NAME, null, values);
-            writableDb.setTransactionSuccessful();
-         } catch (Exception e) {
-            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error adding summary notification record! ", e);
-         } finally {
-            writableDb.endTransaction();
-         }
+         final int summaryId = summaryNotificationId;
+         OneSignalDbExecutor.write(currentContext, "Error adding summary notification record! ", new OneSignalDbExecutor.WriteTask<Void>() {
+            @Override
+            public Void run(SQLiteDatabase writableDb) {
+               ContentValues values = new ContentValues();
+               values.put(NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID, summaryId);
+               values.put(NotificationTable.COLUMN_NAME_GROUP_ID, group);
+               values.put(NotificationTable.COLUMN_NAME_IS_SUMMARY, 1);
+               writableDb.insertOrThrow(NotificationTable.TABLE_NAME, null, values);
+               NotificationGroupIndex.setSummaryId(writableDb, group, summaryId);
+               return null;
+            }
+         });
 
-         NotificationCompat.Builder notifBuilder = getBaseNotificationCompatBuilder(gcmBundle);
+         NotificationCompat.Builder notifBuilder = getBaseNotificationCompatBuilder(gcmBundle, media);
          if (updateSummary)
             removeNotifyOptions(notifBuilder);
 
-         PendingIntent summaryContentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(summaryNotificationId).putExtra("onesignal_data", gcmBundle.toString()).putExtra("summary", group));
+         PendingIntent summaryContentIntent = getNewActionPendingIntent(random.nextInt(), getNewBaseIntent(summaryNotificationId).putExtra("onesignal_data", message.getJsonString()).putExtra("summary", group));
 
-         addNotificationActionButtons(gcmBundle, notifBuilder, summaryNotificationId, group);
+         addNotificationActionButtons(message, notifBuilder, summaryNotificationId, group);
          notifBuilder.setContentIntent(summaryContentIntent)
                      .setDeleteIntent(summaryDeleteIntent)
                      .setOnlyAlertOnce(updateSummary)
@@ -508,7 +505,7 @@ class GenerateNotification {
 
    // Keep 'throws Throwable' as 'onesignal_bgimage_notif_layout' may not be available
    //    This maybe the case if a jar is used instead of an aar.
-   private static void addBackgroundImage(JSONObject gcmBundle, NotificationCompat.Builder notifBuilder) throws Throwable {
+   private static void addBackgroundImage(JSONObject gcmBundle, NotificationCompat.Builder notifBuilder, NotificationMediaPrefetcher.Result media) throws Throwable {
       // Required to right align image
       if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
          return;
@@ -519,11 +516,11 @@ class GenerateNotification {
 
       if (jsonStrBgImage != null) {
          jsonBgImage = new JSONObject(jsonStrBgImage);
-         bg_image = getBitmap(jsonBgImage.optString("img", null));
+         bg_image = getBitmap(jsonBgImage.optString("img", null), getScreenWidth(), dpToPx(BG_IMAGE_HEIGHT_DP), media);
       }
 
       if (bg_image == null)
-         bg_image = getBitmapFromAssetsOrResourceName("onesignal_bgimage_default_image");
+         bg_image = getDefaultBitmap("onesignal_bgimage_default_image", getScreenWidth(), dpToPx(BG_IMAGE_HEIGHT_DP));
 
       if (bg_image != null) {
          RemoteViews customView = new RemoteViews(currentContext.getPackageName(), R.layout.onesignal_bgimage_notif_layout);
@@ -536,7 +533,7 @@ class GenerateNotification {
          if (jsonBgImage != null && jsonBgImage.has("img_align"))
             alignSetting = jsonBgImage.getString("img_align");
          else {
-            int iAlignSetting = contextResources.getIdentifier("onesignal_bgimage_notif_image_align", "string", packageName);
+            int iAlignSetting = NotificationResourceCache.getIdentifier(contextResources, "onesignal_bgimage_notif_image_align", "string", packageName);
             if (iAlignSetting != 0)
                alignSetting = contextResources.getString(iAlignSetting);
          }
@@ -566,7 +563,7 @@ class GenerateNotification {
       if (color != null)
          customView.setTextColor(viewId, color);
       else {
-         int colorId = contextResources.getIdentifier(colorDefaultResource, "color", packageName);
+         int colorId = NotificationResourceCache.getIdentifier(contextResources, colorDefaultResource, "color", packageName);
          if (colorId != 0)
             customView.setTextColor(viewId, AndroidSupportV4Compat.ContextCompat.getColor(currentContext, colorId));
       }
@@ -585,21 +582,22 @@ class GenerateNotification {
       return (name != null && !name.matches("^[0-9]"));
    }
 
-   private static Bitmap getLargeIcon(JSONObject gcmBundle) {
+   private static Bitmap getLargeIcon(JSONObject gcmBundle, NotificationMediaPrefetcher.Result media) {
       if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.HONEYCOMB)
          return null;
 
-      Bitmap bitmap = getBitmap(gcmBundle.optString("licon"));
+      int systemLargeIconHeight = getLargeIconHeight();
+      int systemLargeIconWidth = getLargeIconWidth();
+
+      Bitmap bitmap = getBitmap(gcmBundle.optString("licon"), systemLargeIconWidth, systemLargeIconHeight, media);
       if (bitmap == null)
-         bitmap = getBitmapFromAssetsOrResourceName("ic_onesignal_large_icon_default");
+         bitmap = getDefaultBitmap("ic_onesignal_large_icon_default", systemLargeIconWidth, systemLargeIconHeight);
 
       if (bitmap == null)
          return null;
 
       // Resize to prevent extra cropping and boarders.
       try {
-         int systemLargeIconHeight = (int) contextResources.getDimension(android.R.dimen.notification_large_icon_height);
-         int systemLargeIconWidth = (int) contextResources.getDimension(android.R.dimen.notification_large_icon_width);
          int bitmapHeight = bitmap.getHeight();
          int bitmapWidth = bitmap.getWidth();
 
@@ -620,49 +618,70 @@ class GenerateNotification {
       return bitmap;
    }
 
-   private static Bitmap getBitmapFromAssetsOrResourceName(String bitmapStr) {
+   private static Bitmap getBitmapFromAssetsOrResourceName(String bitmapStr, int reqWidth, int reqHeight) {
       try {
-         Bitmap bitmap = null;
-
-         try {
-            bitmap = BitmapFactory.decodeStream(currentContext.getAssets().open(bitmapStr));
-         } catch (Throwable t) {}
-
-         if (bitmap != null)
-            return bitmap;
-
-         final List<String> image_extensions = Arrays.asList(".png", ".webp", ".jpg", ".gif", ".bmp");
-         for (String extension : image_extensions) {
-            try {
-               bitmap = BitmapFactory.decodeStream(currentContext.getAssets().open(bitmapStr + extension));
-            } catch (Throwable t) {}
+         String assetPath = NotificationResourceCache.resolveImageAsset(currentContext, bitmapStr);
+         if (assetPath != null) {
+            Bitmap bitmap = NotificationImageDecoder.decodeAsset(currentContext, assetPath, reqWidth, reqHeight);
             if (bitmap != null)
                return bitmap;
          }
 
          int bitmapId = getResourceIcon(bitmapStr);
          if (bitmapId != 0)
-            return BitmapFactory.decodeResource(contextResources, bitmapId);
+            return NotificationImageDecoder.decodeResource(contextResources, bitmapId, reqWidth, reqHeight);
       } catch (Throwable t) {}
 
       return null;
    }
 
-   private static Bitmap getBitmapFromURL(String location) {
+   // Bundled default images are only decoded once per size.
+   private static Bitmap getDefaultBitmap(String name, int reqWidth, int reqHeight) {
+      String key = name + "@" + reqWidth + "x" + reqHeight;
+      if (NotificationResourceCache.hasDefaultBitmap(key))
+         return NotificationResourceCache.getDefaultBitmap(key);
+
+      Bitmap bitmap = getBitmapFromAssetsOrResourceName(name, reqWidth, reqHeight);
+      NotificationResourceCache.putDefaultBitmap(key, bitmap);
+      return bitmap;
+   }
+
+   private static Bitmap getBitmapFromURL(String location, int reqWidth, int reqHeight, NotificationMediaPrefetcher.Result media) {
+      // Already fetched before the notification was built, don't hit the network again if it failed.
+      if (media != null)
+         return media.get(location, reqWidth, reqHeight);
+
       try {
-         return BitmapFactory.decodeStream(new URL(location).openConnection().getInputStream());
+         return NotificationImageCache.get(currentContext, location, reqWidth, reqHeight);
       } catch (Throwable t) {}
 
       return null;
    }
 
-   private static Bitmap getBitmap(String name) {
+   // Decoded no smaller than reqWidth x reqHeight but otherwise as small as possible.
+   private static Bitmap getBitmap(String name, int reqWidth, int reqHeight, NotificationMediaPrefetcher.Result media) {
       if (name == null)
          return null;
       if (name.startsWith("http://") || name.startsWith("https://"))
-         return getBitmapFromURL(name);
+         return getBitmapFromURL(name, reqWidth, reqHeight, media);
+
+      return getBitmapFromAssetsOrResourceName(name, reqWidth, reqHeight);
+   }
+
+   private static int getLargeIconWidth() {
+      return (int) contextResources.getDimension(android.R.dimen.notification_large_icon_width);
+   }
+
+   private static int getLargeIconHeight() {
+      return (int) contextResources.getDimension(android.R.dimen.notification_large_icon_height);
+   }
+
+   private static int getScreenWidth() {
+      return contextResources.getDisplayMetrics().widthPixels;
+   }
 
-      return getBitmapFromAssetsOrResourceName(name);
+   private static int dpToPx(int dp) {
+      return (int)(dp * contextResources.getDisplayMetrics().density);
    }
 
    private static int getResourceIcon(String iconName) {
@@ -674,11 +693,7 @@ class GenerateNotification {
          return notificationIcon;
 
       // Get system icon resource
-      try {
-         return drawable.class.getField(iconName).getInt(null);
-      } catch (Throwable t) {}
-
-      return 0;
+      return NotificationResourceCache.getSystemDrawableId(iconName);
    }
 
    private static int getSmallIconId(JSONObject gcmBundle) {
@@ -702,7 +717,7 @@ class GenerateNotification {
    }
 
    private static int getDrawableId(String name) {
-      return contextResources.getIdentifier(name, "drawable", packageName);
+      return NotificationResourceCache.getIdentifier(contextResources, name, "drawable", packageName);
    }
 
    private static boolean isSoundEnabled(JSONObject gcmBundle) {
@@ -717,12 +732,12 @@ class GenerateNotification {
       String sound = gcmBundle.optString("sound", null);
       
       if (isValidResourceName(sound)) {
-         soundId = contextResources.getIdentifier(sound, "raw", packageName);
+         soundId = NotificationResourceCache.getIdentifier(contextResources, sound, "raw", packageName);
          if (soundId != 0)
             return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/" + soundId);
       }
 
-      soundId = contextResources.getIdentifier("onesignal_default_sound", "raw", packageName);
+      soundId = NotificationResourceCache.getIdentifier(contextResources, "onesignal_default_sound", "raw", packageName);
       if (soundId != 0)
          return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/" + soundId);
 
@@ -745,61 +760,48 @@ class GenerateNotification {
       return null;
    }
 
-   private static void addNotificationActionButtons(JSONObject gcmBundle, NotificationCompat.Builder mBuilder, int notificationId, String groupSummary) {
+   private static void addNotificationActionButtons(NotificationMessage message, NotificationCompat.Builder mBuilder, int notificationId, String groupSummary) {
       try {
-         JSONObject customJson = new JSONObject(gcmBundle.optString("custom"));
-
-         if (customJson.has("a")) {
-            JSONObject additionalDataJSON = customJson.getJSONObject("a");
-            if (additionalDataJSON.has("actionButtons")) {
-
-               JSONArray buttons = additionalDataJSON.getJSONArray("actionButtons");
+         JSONArray buttons = message.getActionButtons();
+         if (buttons == null)
+            return;
 
-               for (int i = 0; i < buttons.length(); i++) {
-                  JSONObject button = buttons.optJSONObject(i);
-                  JSONObject bundle = new JSONObject(gcmBundle.toString());
+         String group = message.getGroup();
+         for (int i = 0; i < buttons.length(); i++) {
+            JSONObject button = buttons.optJSONObject(i);
+            JSONObject bundle = message.copyWith("actionSelected", button.optString("id"));
 
-                  Intent buttonIntent = getNewBaseIntent(notificationId);
-                  buttonIntent.setAction("" + i); // Required to keep each action button from replacing extras of each other
-                  buttonIntent.putExtra("action_button", true);
-                  bundle.put("actionSelected", button.optString("id"));
-                  buttonIntent.putExtra("onesignal_data", bundle.toString());
-                  if (groupSummary != null)
-                     buttonIntent.putExtra("summary", groupSummary);
-                  else if (gcmBundle.has("grp"))
-                     buttonIntent.putExtra("grp", gcmBundle.optString("grp"));
+            Intent buttonIntent = getNewBaseIntent(notificationId);
+            buttonIntent.setAction("" + i); // Required to keep each action button from replacing extras of each other
+            buttonIntent.putExtra("action_button", true);
+            buttonIntent.putExtra("onesignal_data", bundle.toString());
+            if (groupSummary != null)
+               buttonIntent.putExtra("summary", groupSummary);
+            else if (group != null)
+               buttonIntent.putExtra("grp", group);
 
-                  PendingIntent buttonPIntent = getNewActionPendingIntent(notificationId, buttonIntent);
+            PendingIntent buttonPIntent = getNewActionPendingIntent(notificationId, buttonIntent);
 
-                  int buttonIcon = 0;
-                  if (button.has("icon"))
-                     buttonIcon = getResourceIcon(button.optString("icon"));
+            int buttonIcon = 0;
+            if (button.has("icon"))
+               buttonIcon = getResourceIcon(button.optString("icon"));
 
-                  mBuilder.addAction(buttonIcon, button.optString("text"), buttonPIntent);
-               }
-            }
+            mBuilder.addAction(buttonIcon, button.optString("text"), buttonPIntent);
          }
       } catch (Throwable t) {
          t.printStackTrace();
       }
    }
 
-   private static void addAlertButtons(Context context, JSONObject gcmBundle, List<String> buttonsLabels, List<String> buttonsIds) {
+   private static void addAlertButtons(Context context, NotificationMessage message, List<String> buttonsLabels, List<String> buttonsIds) {
       try {
-         JSONObject customJson = new JSONObject(gcmBundle.optString("custom"));
+         JSONArray buttons = message.getActionButtons();
+         if (buttons != null) {
+            for (int i = 0; i < buttons.length(); i++) {
+               JSONObject button = buttons.getJSONObject(i);
 
-         if (customJson.has("a")) {
-            JSONObject additionalDataJSON = customJson.getJSONObject("a");
-            if (additionalDataJSON.has("actionButtons")) {
-
-               JSONArray buttons = additionalDataJSON.optJSONArray("actionButtons");
-
-               for (int i = 0; i < buttons.length(); i++) {
-                  JSONObject button = buttons.getJSONObject(i);
-
-                  buttonsLabels.add(button.optString("text"));
-                  buttonsIds.add(button.optString("id"));
-               }
+               buttonsLabels.add(button.optString("text"));
+               buttonsIds.add(button.optString("id"));
             }
          }
 
@@ -40,7 +40,6 @@ import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.support.v4.content.WakefulBroadcastReceiver;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.util.Set;
 
@@ -58,8 +57,8 @@ class NotificationBundleProcessor {
             return;
          }
 
-         JSONObject jsonPayload = new JSONObject(jsonStrPayload);
-         if (!restoring && OneSignal.notValidOrDuplicated(context, jsonPayload))
+         NotificationMessage message = NotificationMessage.fromJson(jsonStrPayload);
+         if (!restoring && OneSignal.notValidOrDuplicated(context, message))
             return;
 
          if (bundle.containsKey("android_notif_id")) {
@@ -68,13 +67,13 @@ class NotificationBundleProcessor {
             overrideSettings.androidNotificationId = bundle.getInt("android_notif_id");
          }
 
-         Process(context, restoring, jsonPayload, overrideSettings);
+         Process(context, restoring, message, overrideSettings);
       } catch (JSONException e) {
          e.printStackTrace();
       }
    }
 
-   static int Process(Context context, boolean restoring, JSONObject jsonPayload, NotificationExtenderService.OverrideSettings overrideSettings) {
+   static int Process(Context context, boolean restoring, NotificationMessage message, NotificationExtenderService.OverrideSettings overrideSettings) {
       boolean showAsAlert = OneSignal.getInAppAlertNotificationEnabled() &&  OneSignal.isAppActive();
 
       int notificationId;
@@ -83,49 +82,31 @@ class NotificationBundleProcessor {
       else
          notificationId = new Random().nextInt();
 
-      GenerateNotification.fromJsonPayload(context, restoring, notificationId, jsonPayload, showAsAlert, overrideSettings);
+      GenerateNotification.fromJsonPayload(context, restoring, notificationId, message, showAsAlert, overrideSettings);
 
       if (!restoring) {
-         saveNotification(context, jsonPayload, false, notificationId);
+         saveNotification(context, message, false, notificationId);
          try {
-            JSONObject jsonObject = new JSONObject(jsonPayload.toString());
-            jsonObject.put("notificationId", notificationId);
-            OneSignal.handleNotificationReceived(newJsonArray(jsonObject), true, showAsAlert);
+            OneSignal.handleNotificationReceived(message, notificationId, true, showAsAlert);
          } catch(Throwable t) {}
       }
 
       return notificationId;
    }
 
-   static JSONArray bundleAsJsonArray(Bundle bundle) {
-      JSONArray jsonArray = new JSONArray();
-      jsonArray.put(bundleAsJSONObject(bundle));
-      return jsonArray;
-   }
-
-
-   static void saveNotification(Context context, Bundle bundle, boolean opened, int notificationId) {
-      saveNotification(context, bundleAsJSONObject(bundle), opened, notificationId);
-   }
-
    // Saving the notification provides the following:
    //   * Prevent duplicates.
    //   * Build summary notifications
    //   * Redisplay notifications after reboot and upgrade of app.
    //   * Future - Developer API to get a list of notifications.
-   static void saveNotification(Context context, JSONObject jsonPayload, boolean opened, int notificationId) {
-      try {
-         JSONObject customJSON = new JSONObject(jsonPayload.optString("custom"));
-
-         OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(context);
-         SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
-
-         writableDb.beginTransaction();
-         try {
-            deleteOldNotifications(writableDb);
+   static void saveNotification(Context context, final NotificationMessage message, final boolean opened, final int notificationId) {
+      final JSONObject jsonPayload = message.getJson();
 
+      Long rowId = OneSignalDbExecutor.write(context, "Error saving notification record! ", new OneSignalDbExecutor.WriteTask<Long>() {
+         @Override
+         public Long run(SQLiteDatabase writableDb) throws Exception {
             ContentValues values = new ContentValues();
-            values.put(NotificationTable.COLUMN_NAME_NOTIFICATION_ID, customJSON.optString("i"));
+            values.put(NotificationTable.COLUMN_NAME_NOTIFICATION_ID, message.getNotificationId());
             if (jsonPayload.has("grp"))
                values.put(NotificationTable.COLUMN_NAME_GROUP_ID, jsonPayload.optString("grp"));
 
@@ -137,28 +118,22 @@ class NotificationBundleProcessor {
                values.put(NotificationTable.COLUMN_NAME_TITLE, jsonPayload.optString("title"));
             values.put(NotificationTable.COLUMN_NAME_MESSAGE, jsonPayload.optString("alert"));
 
-            values.put(NotificationTable.COLUMN_NAME_FULL_DATA, jsonPayload.toString());
-
-            writableDb.insertOrThrow(NotificationTable.TABLE_NAME, null, values);
-
-            if (!opened)
-               BadgeCountUpdater.update(writableDb, context);
-            writableDb.setTransactionSuccessful();
-         } catch (Exception e) {
-            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error saving notification record! ", e);
-         } finally {
-            writableDb.endTransaction();
+            long rowId = writableDb.insertOrThrow(NotificationTable.TABLE_NAME, null, values);
+            NotificationPayloadStore.save(writableDb, rowId, message.getJsonString());
+            if (!opened && jsonPayload.has("grp"))
+               NotificationGroupIndex.addChild(writableDb, jsonPayload.optString("grp"), rowId, notificationId, jsonPayload.optString("title", null), jsonPayload.optString("alert"));
+            return rowId;
          }
-      } catch (JSONException e) {
-         e.printStackTrace();
+      });
+
+      if (rowId != null) {
+         NotificationIdFilter.add(message.getNotificationId());
+         // Outside the write so the launcher call never holds up other writers.
+         if (!opened)
+            BadgeCountUpdater.update(OneSignalDbHelper.getInstance(context).getReadableDatabase(), context);
       }
-   }
 
-   // Clean up old records after 4 weeks.
-   static void deleteOldNotifications(SQLiteDatabase writableDb) {
-      writableDb.delete(NotificationTable.TABLE_NAME,
-          NotificationTable.COLUMN_NAME_CREATED_TIME + " < " + ((System.currentTimeMillis() / 1000L) - 2419200L),
-          null);
+      NotificationRetention.schedule(context);
    }
 
    static JSONObject bundleAsJSONObject(Bundle bundle) {
@@ -176,162 +151,42 @@ class NotificationBundleProcessor {
       return json;
    }
 
-   // Format our short keys into more readable ones.
-   static void prepareBundle(Bundle gcmBundle) {
-      if (gcmBundle.containsKey("o")) {
-         try {
-            JSONObject customJSON = new JSONObject(gcmBundle.getString("custom"));
-            JSONObject additionalDataJSON;
-
-            if (customJSON.has("a"))
-               additionalDataJSON = customJSON.getJSONObject("a");
-            else
-               additionalDataJSON = new JSONObject();
-
-            JSONArray buttons = new JSONArray(gcmBundle.getString("o"));
-            gcmBundle.remove("o");
-            for (int i = 0; i < buttons.length(); i++) {
-               JSONObject button = buttons.getJSONObject(i);
-
-               String buttonText = button.getString("n");
-               button.remove("n");
-               String buttonId;
-               if (button.has("i")) {
-                  buttonId = button.getString("i");
-                  button.remove("i");
-               } else
-                  buttonId = buttonText;
-
-               button.put("id", buttonId);
-               button.put("text", buttonText);
-
-               if (button.has("p")) {
-                  button.put("icon", button.getString("p"));
-                  button.remove("p");
-               }
-            }
-
-            additionalDataJSON.put("actionButtons", buttons);
-            additionalDataJSON.put("actionSelected", DEFAULT_ACTION);
-            if (!customJSON.has("a"))
-               customJSON.put("a", additionalDataJSON);
-
-            gcmBundle.putString("custom", customJSON.toString());
-         } catch (JSONException e) {
-            e.printStackTrace();
-         }
-      }
-   }
-
    static OSNotificationPayload OSNotificationPayloadFrom(JSONObject currentJsonPayload) {
-      OSNotificationPayload notification = new OSNotificationPayload();
-      try {
-         JSONObject customJson = new JSONObject(currentJsonPayload.optString("custom"));
-         notification.notificationID = customJson.optString("i");
-         notification.rawPayload = currentJsonPayload.toString();
-         notification.additionalData = customJson.optJSONObject("a");
-         notification.launchURL = customJson.optString("u", null);
-
-         notification.body = currentJsonPayload.optString("alert", null);
-         notification.title = currentJsonPayload.optString("title", null);
-         notification.smallIcon = currentJsonPayload.optString("sicon", null);
-         notification.bigPicture = currentJsonPayload.optString("bicon", null);
-         notification.largeIcon = currentJsonPayload.optString("licon", null);
-         notification.sound = currentJsonPayload.optString("sound", null);
-         notification.groupKey = currentJsonPayload.optString("grp", null);
-         notification.groupMessage = currentJsonPayload.optString("grp_msg", null);
-         notification.smallIconAccentColor = currentJsonPayload.optString("bgac", null);
-         notification.ledColor = currentJsonPayload.optString("ledc", null);
-         String visibility = currentJsonPayload.optString("vis", null);
-         if (visibility != null)
-            notification.lockScreenVisibility = Integer.parseInt(visibility);
-         notification.fromProjectNumber = currentJsonPayload.optString("from", null);
-         notification.priority = currentJsonPayload.optInt("pri", 0);
-         String collapseKey = currentJsonPayload.optString("collapse_key", null);
-         if (!"do_not_collapse".equals(collapseKey))
-            notification.collapseId = collapseKey;
-
-         try {
-            setActionButtons(notification);
-         } catch (Throwable t) {
-            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload.actionButtons values!", t);
-         }
-
-         try {
-            setBackgroundImageLayout(notification, currentJsonPayload);
-         } catch (Throwable t) {
-            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload.backgroundImageLayout values!", t);
-         }
-      } catch (Throwable t) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload values!", t);
-      }
-
-      return notification;
+      return NotificationMessage.fromJson(currentJsonPayload).toPayload();
    }
 
-
-   private static void setActionButtons(OSNotificationPayload notification) throws Throwable {
-      if (notification.additionalData != null && notification.additionalData.has("actionButtons")) {
-         JSONArray jsonActionButtons = notification.additionalData.getJSONArray("actionButtons");
-         notification.actionButtons = new ArrayList<>();
-
-         for (int i = 0; i < jsonActionButtons.length(); i++) {
-            JSONObject jsonActionButton = jsonActionButtons.getJSONObject(i);
-            OSNotificationPayload.ActionButton actionButton = new OSNotificationPayload.ActionButton();
-            actionButton.id = jsonActionButton.optString("id", null);
-            actionButton.text = jsonActionButton.optString("text", null);
-            actionButton.icon = jsonActionButton.optString("icon", null);
-            notification.actionButtons.add(actionButton);
-         }
-         notification.additionalData.remove("actionSelected");
-         notification.additionalData.remove("actionButtons");
-      }
-   }
-
-   private static void setBackgroundImageLayout(OSNotificationPayload notification, JSONObject currentJsonPayload) throws Throwable {
-      String jsonStrBgImage = currentJsonPayload.optString("bg_img", null);
-      if (jsonStrBgImage != null) {
-         JSONObject jsonBgImage = new JSONObject(jsonStrBgImage);
-         notification.backgroundImageLayout = new OSNotificationPayload.BackgroundImageLayout();
-         notification.backgroundImageLayout.image = jsonBgImage.optString("img");
-         notification.backgroundImageLayout.titleTextColor = jsonBgImage.optString("tc");
-         notification.backgroundImageLayout.bodyTextColor = jsonBgImage.optString("bc");
-      }
-   }
-
-   // Return true to count the payload as processed.
-   static boolean processBundle(Context context, final Bundle bundle) {
+   // Returns the parsed message if it still needs the normal display flow, null if it was handled here.
+   static NotificationMessage processBundle(Context context, Bundle bundle) {
+      final NotificationMessage message = NotificationMessage.fromBundle(bundle);
       // Not a OneSignal GCM message
-      if (OneSignal.getNotificationIdFromGCMBundle(bundle) == null)
-         return true;
-
-      prepareBundle(bundle);
+      if (message == null)
+         return null;
 
       Intent overrideIntent = NotificationExtenderService.getIntent(context);
       if (overrideIntent != null) {
-         overrideIntent.putExtra("json_payload", bundleAsJSONObject(bundle).toString());
+         overrideIntent.putExtra("json_payload", message.getJsonString());
          WakefulBroadcastReceiver.startWakefulService(context, overrideIntent);
-         return true;
+         return null;
       }
 
-      boolean display = shouldDisplay(bundle.getString("alert") != null
-                                   && !"".equals(bundle.getString("alert")));
+      boolean display = shouldDisplay(!"".equals(message.getJson().optString("alert")));
 
       // Save as a opened notification to prevent duplicates.
       if (!display) {
-         if (OneSignal.notValidOrDuplicated(context, bundleAsJSONObject(bundle)))
-            return true;
-         saveNotification(context, bundle, true, -1);
+         if (OneSignal.notValidOrDuplicated(context, message))
+            return null;
+         saveNotification(context, message, true, -1);
          // Current thread is meant to be short lived.
          //    Make a new thread to do our OneSignal work on.
          new Thread(new Runnable() {
             public void run() {
-               OneSignal.handleNotificationReceived(bundleAsJsonArray(bundle), false, false);
+               OneSignal.handleNotificationReceived(message, 0, false, false);
             }
          }).start();
+         return null;
       }
 
-      return !display;
+      return message;
    }
 
    static boolean shouldDisplay(boolean hasBody) {
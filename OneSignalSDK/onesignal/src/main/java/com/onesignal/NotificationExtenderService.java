@@ -35,6 +35,7 @@ import android.content.pm.ResolveInfo;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -79,7 +80,7 @@ public abstract class NotificationExtenderService extends IntentService {
    }
 
    private OSNotificationDisplayedResult osNotificationDisplayedResult;
-   private JSONObject currentJsonPayload;
+   private NotificationMessage currentMessage;
    private boolean currentlyRestoring;
    private OverrideSettings currentBaseOverrideSettings = null;
 
@@ -91,7 +92,7 @@ public abstract class NotificationExtenderService extends IntentService {
 
       overrideSettings.override(currentBaseOverrideSettings);
       osNotificationDisplayedResult = new OSNotificationDisplayedResult();
-      osNotificationDisplayedResult.androidNotificationId = NotificationBundleProcessor.Process(this, currentlyRestoring, currentJsonPayload, overrideSettings);
+      osNotificationDisplayedResult.androidNotificationId = NotificationBundleProcessor.Process(this, currentlyRestoring, currentMessage, overrideSettings);
       return osNotificationDisplayedResult;
    }
 
@@ -115,6 +116,13 @@ public abstract class NotificationExtenderService extends IntentService {
          return;
       }
 
+      // NotificationRestorer sends restored notifications in batches.
+      String restoreBatch = bundle.getString("restore_batch");
+      if (restoreBatch != null) {
+         processRestoreBatch(restoreBatch);
+         return;
+      }
+
       String jsonStrPayload = bundle.getString("json_payload");
       if (jsonStrPayload == null) {
          OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "json_payload key is nonexistent from bundle passed to NotificationExtenderService: " + bundle);
@@ -122,25 +130,41 @@ public abstract class NotificationExtenderService extends IntentService {
       }
 
       try {
-         currentJsonPayload = new JSONObject(jsonStrPayload);
+         currentMessage = NotificationMessage.fromJson(jsonStrPayload);
          currentlyRestoring = bundle.getBoolean("restoring", false);
          if (bundle.containsKey("android_notif_id")) {
             currentBaseOverrideSettings = new OverrideSettings();
             currentBaseOverrideSettings.androidNotificationId = bundle.getInt("android_notif_id");
          }
 
-         if (!currentlyRestoring && OneSignal.notValidOrDuplicated(this, currentJsonPayload))
+         if (!currentlyRestoring && OneSignal.notValidOrDuplicated(this, currentMessage))
             return;
 
-         processJsonObject(currentJsonPayload, currentlyRestoring);
+         processMessage(currentlyRestoring);
+      } catch (JSONException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private void processRestoreBatch(String restoreBatch) {
+      try {
+         JSONArray items = new JSONArray(restoreBatch);
+         currentlyRestoring = true;
+         for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            currentMessage = NotificationMessage.fromJson(item.getJSONObject("json_payload"));
+            currentBaseOverrideSettings = new OverrideSettings();
+            currentBaseOverrideSettings.androidNotificationId = item.getInt("android_notif_id");
+            processMessage(true);
+         }
       } catch (JSONException e) {
          e.printStackTrace();
       }
    }
 
-   void processJsonObject(JSONObject currentJsonPayload, boolean restoring) {
+   void processMessage(boolean restoring) {
       OSNotificationReceivedResult receivedResult = new OSNotificationReceivedResult();
-      receivedResult.payload = NotificationBundleProcessor.OSNotificationPayloadFrom(currentJsonPayload);
+      receivedResult.payload = currentMessage.toPayload();
       receivedResult.restoring = restoring;
       receivedResult.isAppInFocus = OneSignal.isAppActive();
 
@@ -162,14 +186,14 @@ public abstract class NotificationExtenderService extends IntentService {
          // Save as processed to prevent possible duplicate calls from canonical ids.
 
          boolean display = !developerProcessed &&
-                           NotificationBundleProcessor.shouldDisplay(!"".equals(currentJsonPayload.optString("alert")));
+                           NotificationBundleProcessor.shouldDisplay(!"".equals(currentMessage.getJson().optString("alert")));
 
          if (!display) {
             if (!restoring)
-               NotificationBundleProcessor.saveNotification(this, currentJsonPayload, true, -1);
+               NotificationBundleProcessor.saveNotification(this, currentMessage, true, -1);
          }
          else
-            NotificationBundleProcessor.Process(this, currentlyRestoring, currentJsonPayload, currentBaseOverrideSettings);
+            NotificationBundleProcessor.Process(this, currentlyRestoring, currentMessage, currentBaseOverrideSettings);
       }
    }
 
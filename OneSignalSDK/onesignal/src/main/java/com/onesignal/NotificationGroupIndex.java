@@ -0,0 +1,350 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.onesignal.OneSignalDbContract.NotificationGroupTable;
+import com.onesignal.OneSignalDbContract.NotificationTable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Per group state needed to draw a group summary: the summary's android notification id, the number of
+//   un-dismissed, un-opened children and the newest MAX_LINES of them for the inbox lines.
+//   Kept in memory and in notification_group, updated inside the same write as the notification rows it follows,
+//   so a summary update no longer re-reads every row of the group.
+//   A group missing from notification_group is rebuilt from the notification table with bounded queries.
+class NotificationGroupIndex {
+
+   // Inbox lines shown on a summary, the count still covers every child.
+   static final int MAX_LINES = 7;
+
+   static class Line {
+      final long rowId;
+      final int androidNotificationId;
+      final String title;
+      final String message;
+
+      Line(long rowId, int androidNotificationId, String title, String message) {
+         this.rowId = rowId;
+         this.androidNotificationId = androidNotificationId;
+         this.title = title;
+         this.message = message;
+      }
+   }
+
+   static class Group {
+      Integer summaryId;
+      int count;
+      // Newest first.
+      List<Line> lines = new ArrayList<>();
+
+      Group copy() {
+         Group copy = new Group();
+         copy.summaryId = summaryId;
+         copy.count = count;
+         copy.lines = new ArrayList<>(lines);
+         return copy;
+      }
+   }
+
+   private static final Object indexLock = new Object();
+   private static HashMap<String, Group> groups = new HashMap<>();
+   private static int rebuildCount;
+   // Groups changed by the running write. Evicted if it rolls back so memory never gets ahead of the table.
+   //   Only used while holding OneSignalDbExecutor.writeLock.
+   private static Set<String> changedGroupIds = new HashSet<>();
+
+   // Returns a snapshot of the group, empty if it has no records.
+   static Group get(SQLiteDatabase db, String groupId) {
+      return acquire(db, groupId).copy();
+   }
+
+   // Below are called from OneSignalDbExecutor write tasks only, so changes never interleave.
+
+   static void addChild(SQLiteDatabase writableDb, String groupId, long rowId, int androidNotificationId, String title, String message) {
+      changedGroupIds.add(groupId);
+      Group group = acquire(writableDb, groupId);
+      synchronized (indexLock) {
+         // Already counted if the group was just rebuilt from the table.
+         if (!group.lines.isEmpty() && group.lines.get(0).rowId == rowId)
+            return;
+
+         group.count++;
+         group.lines.add(0, new Line(rowId, androidNotificationId, title, message));
+         if (group.lines.size() > MAX_LINES)
+            group.lines.remove(MAX_LINES);
+      }
+      persist(writableDb, groupId, group);
+   }
+
+   static void setSummaryId(SQLiteDatabase writableDb, String groupId, int summaryId) {
+      changedGroupIds.add(groupId);
+      Group group = acquire(writableDb, groupId);
+      synchronized (indexLock) {
+         group.summaryId = summaryId;
+      }
+      persist(writableDb, groupId, group);
+   }
+
+   // Call before the notification is marked as opened or dismissed.
+   static void removeNotification(SQLiteDatabase writableDb, int androidNotificationId) {
+      Cursor cursor = writableDb.query(NotificationTable.TABLE_NAME,
+                                       new String[] { NotificationTable._ID, NotificationTable.COLUMN_NAME_GROUP_ID, NotificationTable.COLUMN_NAME_IS_SUMMARY },
+                                       NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID + " = " + androidNotificationId + " AND " +
+                                          NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
+                                          NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
+                                          NotificationTable.COLUMN_NAME_GROUP_ID + " IS NOT NULL",
+                                       null, null, null, null, "1");
+      long rowId;
+      String groupId;
+      boolean isSummary;
+      try {
+         if (!cursor.moveToFirst())
+            return;
+         rowId = cursor.getLong(0);
+         groupId = cursor.getString(1);
+         isSummary = cursor.getInt(2) == 1;
+      } finally {
+         cursor.close();
+      }
+
+      changedGroupIds.add(groupId);
+      Group group = acquire(writableDb, groupId);
+      boolean refill;
+      synchronized (indexLock) {
+         if (isSummary) {
+            group.summaryId = null;
+            refill = false;
+         }
+         else {
+            group.count = Math.max(group.count - 1, 0);
+            for (int i = 0; i < group.lines.size(); i++) {
+               if (group.lines.get(i).rowId == rowId) {
+                  group.lines.remove(i);
+                  break;
+               }
+            }
+            refill = group.lines.size() < Math.min(group.count, MAX_LINES);
+         }
+      }
+
+      // The removed child was one of the lines and older children are waiting to take its place.
+      if (refill) {
+         List<Line> lines = queryLines(writableDb, groupId, rowId);
+         synchronized (indexLock) {
+            group.lines = lines;
+         }
+      }
+      persist(writableDb, groupId, group);
+   }
+
+   static void removeGroup(SQLiteDatabase writableDb, String groupId) {
+      synchronized (indexLock) {
+         groups.remove(groupId);
+      }
+      writableDb.delete(NotificationGroupTable.TABLE_NAME, NotificationGroupTable.COLUMN_NAME_GROUP_ID + " = ?", new String[] { groupId });
+   }
+
+   // Drops every group, each is rebuilt from the notification table on next use.
+   static void clear(SQLiteDatabase writableDb) {
+      synchronized (indexLock) {
+         groups.clear();
+      }
+      writableDb.delete(NotificationGroupTable.TABLE_NAME, null, null);
+   }
+
+   // Called by OneSignalDbExecutor once the outermost write is done.
+   static void onWriteFinished(boolean committed) {
+      if (changedGroupIds.isEmpty())
+         return;
+
+      if (!committed) {
+         synchronized (indexLock) {
+            for (String groupId : changedGroupIds)
+               groups.remove(groupId);
+         }
+      }
+      changedGroupIds.clear();
+   }
+
+   static int getRebuildCount() {
+      return rebuildCount;
+   }
+
+   // Returns the live group, loading it without holding indexLock so readers never wait on the database under it.
+   private static Group acquire(SQLiteDatabase db, String groupId) {
+      synchronized (indexLock) {
+         Group group = groups.get(groupId);
+         if (group != null)
+            return group;
+      }
+
+      Group loaded = load(db, groupId);
+      synchronized (indexLock) {
+         Group group = groups.get(groupId);
+         if (group != null)
+            return group;
+         groups.put(groupId, loaded);
+         return loaded;
+      }
+   }
+
+   private static Group load(SQLiteDatabase db, String groupId) {
+      Cursor cursor = db.query(NotificationGroupTable.TABLE_NAME,
+                               new String[] { NotificationGroupTable.COLUMN_NAME_SUMMARY_ID, NotificationGroupTable.COLUMN_NAME_COUNT, NotificationGroupTable.COLUMN_NAME_LINES },
+                               NotificationGroupTable.COLUMN_NAME_GROUP_ID + " = ?",
+                               new String[] { groupId },
+                               null, null, null);
+      try {
+         if (cursor.moveToFirst()) {
+            Group group = new Group();
+            if (!cursor.isNull(0))
+               group.summaryId = cursor.getInt(0);
+            group.count = cursor.getInt(1);
+            group.lines = linesFromJson(cursor.getString(2));
+            return group;
+         }
+      } finally {
+         cursor.close();
+      }
+
+      return rebuild(db, groupId);
+   }
+
+   private static Group rebuild(SQLiteDatabase db, String groupId) {
+      rebuildCount++;
+      Group group = new Group();
+      String unreadWhere = NotificationTable.COLUMN_NAME_GROUP_ID + " = ? AND " +
+                           NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
+                           NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
+                           NotificationTable.COLUMN_NAME_IS_SUMMARY;
+      String[] whereArgs = { groupId };
+
+      Cursor cursor = db.query(NotificationTable.TABLE_NAME,
+                               new String[] { NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID },
+                               unreadWhere + " = 1",
+                               whereArgs,
+                               null, null,
+                               NotificationTable._ID + " DESC",
+                               "1");
+      try {
+         if (cursor.moveToFirst())
+            group.summaryId = cursor.getInt(0);
+      } finally {
+         cursor.close();
+      }
+
+      cursor = db.rawQuery("SELECT COUNT(*) FROM " + NotificationTable.TABLE_NAME + " WHERE " + unreadWhere + " = 0", whereArgs);
+      try {
+         if (cursor.moveToFirst())
+            group.count = cursor.getInt(0);
+      } finally {
+         cursor.close();
+      }
+
+      group.lines = queryLines(db, groupId, -1);
+      return group;
+   }
+
+   // Newest MAX_LINES unread children of the group, leaving out excludeRowId.
+   private static List<Line> queryLines(SQLiteDatabase db, String groupId, long excludeRowId) {
+      List<Line> lines = new ArrayList<>();
+      Cursor cursor = db.query(NotificationTable.TABLE_NAME,
+                               new String[] { NotificationTable._ID,
+                                              NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID,
+                                              NotificationTable.COLUMN_NAME_TITLE,
+                                              NotificationTable.COLUMN_NAME_MESSAGE },
+                               NotificationTable.COLUMN_NAME_GROUP_ID + " = ? AND " +
+                                  NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
+                                  NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
+                                  NotificationTable.COLUMN_NAME_IS_SUMMARY + " = 0 AND " +
+                                  NotificationTable._ID + " != " + excludeRowId,
+                               new String[] { groupId },
+                               null, null,
+                               NotificationTable._ID + " DESC",
+                               String.valueOf(MAX_LINES));
+      try {
+         while (cursor.moveToNext())
+            lines.add(new Line(cursor.getLong(0), cursor.getInt(1), cursor.getString(2), cursor.getString(3)));
+      } finally {
+         cursor.close();
+      }
+      return lines;
+   }
+
+   private static void persist(SQLiteDatabase writableDb, String groupId, Group group) {
+      ContentValues values = new ContentValues();
+      synchronized (indexLock) {
+         values.put(NotificationGroupTable.COLUMN_NAME_GROUP_ID, groupId);
+         values.put(NotificationGroupTable.COLUMN_NAME_SUMMARY_ID, group.summaryId);
+         values.put(NotificationGroupTable.COLUMN_NAME_COUNT, group.count);
+         values.put(NotificationGroupTable.COLUMN_NAME_LINES, linesToJson(group.lines));
+      }
+      writableDb.insertWithOnConflict(NotificationGroupTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+   }
+
+   private static String linesToJson(List<Line> lines) {
+      JSONArray jsonLines = new JSONArray();
+      for (Line line : lines) {
+         try {
+            JSONObject jsonLine = new JSONObject();
+            jsonLine.put("r", line.rowId);
+            jsonLine.put("a", line.androidNotificationId);
+            jsonLine.put("t", line.title);
+            jsonLine.put("m", line.message);
+            jsonLines.put(jsonLine);
+         } catch (Throwable t) {}
+      }
+      return jsonLines.toString();
+   }
+
+   private static List<Line> linesFromJson(String jsonStr) {
+      List<Line> lines = new ArrayList<>();
+      try {
+         JSONArray jsonLines = new JSONArray(jsonStr);
+         for (int i = 0; i < jsonLines.length(); i++) {
+            JSONObject jsonLine = jsonLines.getJSONObject(i);
+            lines.add(new Line(jsonLine.getLong("r"), jsonLine.getInt("a"), jsonLine.optString("t", null), jsonLine.optString("m", null)));
+         }
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Could not read lines of notification group index.", t);
+      }
+      return lines;
+   }
+}
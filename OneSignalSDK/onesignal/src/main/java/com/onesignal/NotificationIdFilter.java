@@ -0,0 +1,176 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.onesignal.OneSignalDbContract.NotificationTable;
+
+// Bloom filter of the notification ids saved in the notification table.
+//   Sits in front of the duplicate check so an id that was never saved, the common case, is answered
+//   without a query. A "maybe" still goes to the database so a false positive only costs the query.
+//   Built from the table on first use in the process and kept up to date as notifications are saved.
+//   Rows deleted by the 4 week cleanup stay in the filter until the next process, which only adds false positives.
+class NotificationIdFilter {
+
+   // 64K bits (8KB) with 4 hashes stays under a 1% false positive rate up to ~6,800 ids.
+   private static final int BIT_COUNT = 1 << 16;
+   private static final int HASH_COUNT = 4;
+
+   private static final Object filterLock = new Object();
+
+   private static long[] bits;
+   // Set if the table could not be read, every lookup then goes to the database.
+   private static boolean unavailable;
+   private static int idCount;
+
+   private static int lookupCount;
+   private static int avoidedLookupCount;
+   private static int falsePositiveCount;
+
+   // false means the id is definitely not in the notification table.
+   static boolean mightContain(Context context, String id) {
+      synchronized (filterLock) {
+         ensureBuilt(context);
+         if (unavailable)
+            return true;
+
+         lookupCount++;
+         if (test(id))
+            return true;
+
+         avoidedLookupCount++;
+         return false;
+      }
+   }
+
+   // Called when the database answered a "maybe" with no.
+   static void recordFalsePositive() {
+      synchronized (filterLock) {
+         falsePositiveCount++;
+      }
+   }
+
+   static void add(String id) {
+      if (id == null || "".equals(id))
+         return;
+
+      synchronized (filterLock) {
+         // Not built yet, the id will be picked up from the table.
+         if (bits == null)
+            return;
+         set(id);
+         idCount++;
+      }
+   }
+
+   private static void ensureBuilt(Context context) {
+      if (bits != null || unavailable)
+         return;
+
+      long startTime = System.nanoTime();
+      bits = new long[BIT_COUNT / 64];
+      idCount = 0;
+
+      Cursor cursor = null;
+      try {
+         SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDatabase();
+         cursor = readableDb.query(NotificationTable.TABLE_NAME,
+                                   new String[] { NotificationTable.COLUMN_NAME_NOTIFICATION_ID },
+                                   NotificationTable.COLUMN_NAME_NOTIFICATION_ID + " IS NOT NULL",
+                                   null, null, null, null);
+         while (cursor.moveToNext()) {
+            set(cursor.getString(0));
+            idCount++;
+         }
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error building notification id filter, falling back to database lookups.", t);
+         bits = null;
+         unavailable = true;
+         return;
+      } finally {
+         if (cursor != null)
+            cursor.close();
+      }
+
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Built notification id filter with " + idCount + " ids in "
+                                               + ((System.nanoTime() - startTime) / 1000000) + "ms.");
+   }
+
+   private static void set(String id) {
+      int hash1 = id.hashCode(), hash2 = secondHash(id);
+      for (int i = 0; i < HASH_COUNT; i++) {
+         int bit = bitIndex(hash1, hash2, i);
+         bits[bit >>> 6] |= 1L << (bit & 63);
+      }
+   }
+
+   private static boolean test(String id) {
+      int hash1 = id.hashCode(), hash2 = secondHash(id);
+      for (int i = 0; i < HASH_COUNT; i++) {
+         int bit = bitIndex(hash1, hash2, i);
+         if ((bits[bit >>> 6] & (1L << (bit & 63))) == 0)
+            return false;
+      }
+      return true;
+   }
+
+   // Double hashing, the i-th index is hash1 + i * hash2.
+   private static int bitIndex(int hash1, int hash2, int i) {
+      return (hash1 + i * hash2) & (BIT_COUNT - 1);
+   }
+
+   // FNV-1a, independent enough from String.hashCode for double hashing. Forced odd so it never degenerates.
+   private static int secondHash(String id) {
+      int hash = 0x811C9DC5;
+      for (int i = 0; i < id.length(); i++) {
+         hash ^= id.charAt(i);
+         hash *= 0x01000193;
+      }
+      return hash | 1;
+   }
+
+   static int getLookupCount() {
+      return lookupCount;
+   }
+
+   static int getAvoidedLookupCount() {
+      return avoidedLookupCount;
+   }
+
+   // Share of ids not in the table that still needed a query.
+   static double getFalsePositiveRate() {
+      synchronized (filterLock) {
+         int negatives = avoidedLookupCount + falsePositiveCount;
+         return negatives == 0 ? 0 : (double)falsePositiveCount / negatives;
+      }
+   }
+}
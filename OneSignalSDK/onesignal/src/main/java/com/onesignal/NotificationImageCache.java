@@ -0,0 +1,297 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Two tier cache for images downloaded for notifications (licon, bicon and bg_img).
+//   Memory: decoded Bitmaps in an LRU bounded by their byte size.
+//   Disk: the downloaded bytes and their ETag in the app's cache dir, bounded by MAX_DISK_SIZE, oldest used removed first.
+// A disk entry younger than FRESH_TIME is used as is, after that it is revalidated with If-None-Match.
+//   If revalidation fails the stale copy is still used, a notification is better with an old image than none.
+class NotificationImageCache {
+
+   private static final String CACHE_DIR = "onesignal_images";
+   private static final String ETAG_SUFFIX = ".etag";
+   private static final long MAX_DISK_SIZE = 10 * 1024 * 1024;
+   private static final long FRESH_TIME = 60 * 60 * 1000;
+
+   private static final Object cacheLock = new Object();
+   private static LruCache<String, Bitmap> memoryCache;
+
+   private static int memoryHitCount, diskHitCount, revalidatedCount, downloadCount;
+
+   private static LruCache<String, Bitmap> getMemoryCache() {
+      synchronized (cacheLock) {
+         if (memoryCache == null) {
+            // 1/16 of the heap, capped at 4MB. Notification images are only needed while a notification is built.
+            int maxSize = (int)Math.min(Runtime.getRuntime().maxMemory() / 16, 4 * 1024 * 1024);
+            memoryCache = new LruCache<String, Bitmap>(maxSize) {
+               @Override
+               protected int sizeOf(String key, Bitmap bitmap) {
+                  return bitmap.getRowBytes() * bitmap.getHeight();
+               }
+            };
+         }
+         return memoryCache;
+      }
+   }
+
+   // The decoded Bitmap is at least reqWidth x reqHeight if the image is, see NotificationImageDecoder.
+   static Bitmap get(Context context, String location, int reqWidth, int reqHeight) {
+      String memoryKey = location + "@" + reqWidth + "x" + reqHeight;
+      Bitmap bitmap = getMemoryCache().get(memoryKey);
+      if (bitmap != null) {
+         synchronized (cacheLock) {
+            memoryHitCount++;
+         }
+         return bitmap;
+      }
+
+      File dir = new File(context.getCacheDir(), CACHE_DIR);
+      String key = keyFor(location);
+      File dataFile = new File(dir, key);
+      File etagFile = new File(dir, key + ETAG_SUFFIX);
+
+      byte[] data = null;
+      if (dataFile.exists() && System.currentTimeMillis() - dataFile.lastModified() < FRESH_TIME) {
+         data = readFile(dataFile);
+         if (data != null) {
+            synchronized (cacheLock) {
+               diskHitCount++;
+            }
+         }
+      }
+
+      if (data == null)
+         data = download(location, dir, dataFile, etagFile);
+
+      if (data == null)
+         return null;
+
+      bitmap = NotificationImageDecoder.decodeByteArray(data, reqWidth, reqHeight);
+      if (bitmap != null)
+         getMemoryCache().put(memoryKey, bitmap);
+      return bitmap;
+   }
+
+   // Downloads location or revalidates the copy on disk, returns null if neither is available.
+   private static byte[] download(String location, File dir, File dataFile, File etagFile) {
+      byte[] staleData = dataFile.exists() ? readFile(dataFile) : null;
+      String etag = (staleData != null && etagFile.exists()) ? new String(readFile(etagFile)) : null;
+
+      URLConnection connection = null;
+      try {
+         connection = new URL(location).openConnection();
+         connection.setConnectTimeout((int)NotificationMediaPrefetcher.deadline);
+         connection.setReadTimeout((int)NotificationMediaPrefetcher.deadline);
+         if (etag != null)
+            connection.setRequestProperty("If-None-Match", etag);
+
+         if (connection instanceof HttpURLConnection) {
+            int responseCode = ((HttpURLConnection)connection).getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && staleData != null) {
+               dataFile.setLastModified(System.currentTimeMillis());
+               synchronized (cacheLock) {
+                  revalidatedCount++;
+               }
+               return staleData;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK)
+               return staleData;
+         }
+
+         InputStream inputStream = connection.getInputStream();
+         byte[] data;
+         try {
+            data = readStream(inputStream);
+         } finally {
+            inputStream.close();
+         }
+
+         synchronized (cacheLock) {
+            downloadCount++;
+         }
+
+         String newEtag = connection.getHeaderField("ETag");
+         writeToDisk(dir, dataFile, data, etagFile, newEtag);
+         return data;
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Could not download notification image " + location, t);
+         return staleData;
+      } finally {
+         if (connection instanceof HttpURLConnection)
+            ((HttpURLConnection)connection).disconnect();
+      }
+   }
+
+   private static void writeToDisk(File dir, File dataFile, byte[] data, File etagFile, String etag) {
+      synchronized (cacheLock) {
+         try {
+            if (!dir.exists() && !dir.mkdirs())
+               return;
+
+            writeFile(dataFile, data);
+            if (etag != null)
+               writeFile(etagFile, etag.getBytes());
+            else
+               etagFile.delete();
+
+            trimDisk(dir);
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Could not cache notification image.", t);
+            dataFile.delete();
+            etagFile.delete();
+         }
+      }
+   }
+
+   // Deletes the least recently used images until the directory fits in MAX_DISK_SIZE.
+   private static void trimDisk(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+
+      long totalSize = 0;
+      for (File file : files)
+         totalSize += file.length();
+      if (totalSize <= MAX_DISK_SIZE)
+         return;
+
+      Arrays.sort(files, new Comparator<File>() {
+         @Override
+         public int compare(File lhs, File rhs) {
+            long lhsTime = lhs.lastModified(), rhsTime = rhs.lastModified();
+            return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+         }
+      });
+
+      for (File file : files) {
+         if (totalSize <= MAX_DISK_SIZE)
+            break;
+         if (file.getName().endsWith(ETAG_SUFFIX))
+            continue;
+
+         totalSize -= file.length();
+         file.delete();
+         File etagFile = new File(dir, file.getName() + ETAG_SUFFIX);
+         totalSize -= etagFile.length();
+         etagFile.delete();
+      }
+   }
+
+   private static String keyFor(String location) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1").digest(location.getBytes("UTF-8"));
+         StringBuilder key = new StringBuilder();
+         for (byte b : digest)
+            key.append(String.format("%02x", b));
+         return key.toString();
+      } catch (Throwable t) {
+         return Integer.toHexString(location.hashCode());
+      }
+   }
+
+   private static byte[] readFile(File file) {
+      try {
+         InputStream inputStream = new FileInputStream(file);
+         try {
+            return readStream(inputStream);
+         } finally {
+            inputStream.close();
+         }
+      } catch (IOException e) {
+         return null;
+      }
+   }
+
+   private static void writeFile(File file, byte[] data) throws IOException {
+      OutputStream outputStream = new FileOutputStream(file);
+      try {
+         outputStream.write(data);
+      } finally {
+         outputStream.close();
+      }
+   }
+
+   private static byte[] readStream(InputStream inputStream) throws IOException {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1)
+         outputStream.write(buffer, 0, read);
+      return outputStream.toByteArray();
+   }
+
+   static void clearMemory() {
+      getMemoryCache().evictAll();
+   }
+
+   static int getMemoryHitCount() {
+      return memoryHitCount;
+   }
+
+   // Fresh disk hits plus stale copies revalidated with a 304.
+   static int getDiskHitCount() {
+      return diskHitCount + revalidatedCount;
+   }
+
+   static int getRevalidatedCount() {
+      return revalidatedCount;
+   }
+
+   static int getDownloadCount() {
+      return downloadCount;
+   }
+
+   // Share of lookups that didn't download the image.
+   static float getHitRate() {
+      synchronized (cacheLock) {
+         int hits = memoryHitCount + diskHitCount + revalidatedCount;
+         int total = hits + downloadCount;
+         return total == 0 ? 0 : (float)hits / total;
+      }
+   }
+}
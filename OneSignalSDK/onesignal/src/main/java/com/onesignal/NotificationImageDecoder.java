@@ -0,0 +1,118 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.InputStream;
+
+// Decodes notification images no larger than needed for the slot they are shown in.
+//   The image's bounds are read first and it is then decoded with the largest power of 2 inSampleSize
+//   that keeps it at least reqWidth x reqHeight, so a 2000px campaign image never lands on the heap at full size.
+class NotificationImageDecoder {
+
+   private static long decodedByteCount;
+
+   static Bitmap decodeByteArray(byte[] data, int reqWidth, int reqHeight) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+      options = decodeOptions(options, reqWidth, reqHeight);
+      return track(BitmapFactory.decodeByteArray(data, 0, data.length, options));
+   }
+
+   static Bitmap decodeResource(Resources resources, int resId, int reqWidth, int reqHeight) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeResource(resources, resId, options);
+
+      options = decodeOptions(options, reqWidth, reqHeight);
+      return track(BitmapFactory.decodeResource(resources, resId, options));
+   }
+
+   // Opens the asset twice, once for its bounds and once to decode it. Returns null if it doesn't exist.
+   static Bitmap decodeAsset(Context context, String assetName, int reqWidth, int reqHeight) {
+      try {
+         BitmapFactory.Options options = new BitmapFactory.Options();
+         options.inJustDecodeBounds = true;
+         InputStream inputStream = context.getAssets().open(assetName);
+         try {
+            BitmapFactory.decodeStream(inputStream, null, options);
+         } finally {
+            inputStream.close();
+         }
+
+         options = decodeOptions(options, reqWidth, reqHeight);
+         inputStream = context.getAssets().open(assetName);
+         try {
+            return track(BitmapFactory.decodeStream(inputStream, null, options));
+         } finally {
+            inputStream.close();
+         }
+      } catch (Throwable t) {
+         return null;
+      }
+   }
+
+   private static BitmapFactory.Options decodeOptions(BitmapFactory.Options boundsOptions, int reqWidth, int reqHeight) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = calculateInSampleSize(boundsOptions.outWidth, boundsOptions.outHeight, reqWidth, reqHeight);
+      return options;
+   }
+
+   static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+      int inSampleSize = 1;
+      if (width <= 0 || height <= 0 || reqWidth <= 0 || reqHeight <= 0)
+         return inSampleSize;
+
+      int halfWidth = width / 2, halfHeight = height / 2;
+      while (halfWidth / inSampleSize >= reqWidth && halfHeight / inSampleSize >= reqHeight)
+         inSampleSize *= 2;
+
+      return inSampleSize;
+   }
+
+   private static Bitmap track(Bitmap bitmap) {
+      if (bitmap != null) {
+         synchronized (NotificationImageDecoder.class) {
+            decodedByteCount += bitmap.getRowBytes() * bitmap.getHeight();
+         }
+      }
+      return bitmap;
+   }
+
+   // Bytes of bitmap memory decoded since the process started.
+   static long getDecodedByteCount() {
+      return decodedByteCount;
+   }
+}
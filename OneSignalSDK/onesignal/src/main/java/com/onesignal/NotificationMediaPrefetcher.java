@@ -0,0 +1,171 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Downloads all remote images a notification uses (licon, bicon and bg_img) at the same time before it is built,
+//   so render time is the slowest fetch instead of the sum of them.
+// All fetches share one DEADLINE. If it passes, the ones still running are cancelled and the notification
+//   is shown text only rather than holding up the GcmIntentService queue behind a slow CDN.
+class NotificationMediaPrefetcher {
+
+   static final long DEADLINE = 5 * 1000;
+   // Package-private so tests can shorten it.
+   static long deadline = DEADLINE;
+   private static final int WORKER_COUNT = 3;
+
+   private static ThreadPoolExecutor executor;
+
+   private static int deadlineMissedCount;
+
+   static class Result {
+      private final Map<String, Bitmap> bitmaps = new HashMap<>();
+      private final Map<String, Long> latencies = new HashMap<>();
+      boolean deadlineMissed;
+
+      // Null if the image failed, didn't make the deadline or wasn't requested.
+      Bitmap get(String location, int reqWidth, int reqHeight) {
+         if (deadlineMissed)
+            return null;
+         return bitmaps.get(key(location, reqWidth, reqHeight));
+      }
+
+      // Milliseconds each image took, missing if it didn't finish.
+      Map<String, Long> getLatencies() {
+         return latencies;
+      }
+   }
+
+   static class Request {
+      final String location;
+      final int reqWidth, reqHeight;
+
+      Request(String location, int reqWidth, int reqHeight) {
+         this.location = location;
+         this.reqWidth = reqWidth;
+         this.reqHeight = reqHeight;
+      }
+   }
+
+   private static String key(String location, int reqWidth, int reqHeight) {
+      return location + "@" + reqWidth + "x" + reqHeight;
+   }
+
+   private static synchronized ThreadPoolExecutor getExecutor() {
+      if (executor == null) {
+         executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                                           30L, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>(),
+                                           new ThreadFactory() {
+                                              private final AtomicInteger threadNumber = new AtomicInteger(1);
+                                              @Override
+                                              public Thread newThread(Runnable runnable) {
+                                                 return new Thread(runnable, "OS_MediaPrefetch-" + threadNumber.getAndIncrement());
+                                              }
+                                           });
+         // Only needed while notifications are coming in.
+         executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+   }
+
+   static Result prefetch(final Context context, List<Request> requests) {
+      Result result = new Result();
+      if (requests.isEmpty())
+         return result;
+
+      final Map<String, Long> latencies = new ConcurrentHashMap<>();
+      List<Callable<Bitmap>> tasks = new ArrayList<>();
+      for (final Request request : requests) {
+         tasks.add(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+               long startTime = System.currentTimeMillis();
+               try {
+                  return NotificationImageCache.get(context, request.location, request.reqWidth, request.reqHeight);
+               } finally {
+                  latencies.put(request.location, System.currentTimeMillis() - startTime);
+               }
+            }
+         });
+      }
+
+      List<Future<Bitmap>> futures;
+      try {
+         futures = getExecutor().invokeAll(tasks, deadline, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         result.deadlineMissed = true;
+         return result;
+      }
+
+      for (int i = 0; i < requests.size(); i++) {
+         Request request = requests.get(i);
+         try {
+            Bitmap bitmap = futures.get(i).get();
+            if (bitmap != null)
+               result.bitmaps.put(key(request.location, request.reqWidth, request.reqHeight), bitmap);
+            result.latencies.put(request.location, latencies.get(request.location));
+            OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Fetched notification image " + request.location + " in " + latencies.get(request.location) + "ms.");
+         } catch (CancellationException e) {
+            result.deadlineMissed = true;
+            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Notification image " + request.location + " did not load within " + deadline + "ms.");
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Could not fetch notification image " + request.location, t);
+         }
+      }
+
+      if (result.deadlineMissed) {
+         synchronized (NotificationMediaPrefetcher.class) {
+            deadlineMissedCount++;
+         }
+      }
+
+      return result;
+   }
+
+   static int getDeadlineMissedCount() {
+      return deadlineMissedCount;
+   }
+}
@@ -0,0 +1,283 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// A received notification, parsed once and shared by every stage that handles it.
+//   Built from the GCM / ADM Bundle or from a stored / forwarded json_payload, then passed to dedupe,
+//   save, display, the extender and the received callback instead of each re-parsing "custom".
+//   Treat as immutable; code that needs to change the payload works on a copy.
+class NotificationMessage {
+
+   private static int buildCount;
+
+   private final JSONObject json;
+   private final JSONObject custom;
+   private final String notificationId;
+   private String jsonString;
+
+   private NotificationMessage(JSONObject json, JSONObject custom) {
+      this.json = json;
+      this.custom = custom;
+      notificationId = custom.optString("i", null);
+      buildCount++;
+   }
+
+   // Returns null if the Bundle is not a OneSignal message.
+   static NotificationMessage fromBundle(Bundle bundle) {
+      if (bundle.isEmpty())
+         return null;
+
+      String customStr = bundle.getString("custom");
+      if (customStr == null) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Not a OneSignal formatted GCM message. No 'custom' field in the bundle.");
+         return null;
+      }
+
+      JSONObject custom;
+      try {
+         custom = new JSONObject(customStr);
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Could not parse bundle, probably not a OneSignal notification.", t);
+         return null;
+      }
+
+      if (!custom.has("i")) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Not a OneSignal formatted GCM message. No 'i' field in custom.");
+         return null;
+      }
+
+      JSONObject json = NotificationBundleProcessor.bundleAsJSONObject(bundle);
+      if (json.has("o"))
+         prepareActionButtons(json, custom);
+
+      return new NotificationMessage(json, custom);
+   }
+
+   static NotificationMessage fromJson(String jsonStr) throws JSONException {
+      NotificationMessage message = fromJson(new JSONObject(jsonStr));
+      message.jsonString = jsonStr;
+      return message;
+   }
+
+   static NotificationMessage fromJson(JSONObject json) {
+      JSONObject custom = null;
+      String customStr = json.optString("custom", null);
+      if (customStr != null) {
+         try {
+            custom = new JSONObject(customStr);
+         } catch (JSONException e) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Could not parse custom of notification payload.", e);
+         }
+      }
+
+      return new NotificationMessage(json, custom != null ? custom : new JSONObject());
+   }
+
+   // Format our short button keys into more readable ones under custom.a.actionButtons.
+   private static void prepareActionButtons(JSONObject json, JSONObject custom) {
+      try {
+         JSONObject additionalDataJSON = custom.optJSONObject("a");
+         if (additionalDataJSON == null) {
+            additionalDataJSON = new JSONObject();
+            custom.put("a", additionalDataJSON);
+         }
+
+         JSONArray buttons = new JSONArray(json.optString("o"));
+         json.remove("o");
+         for (int i = 0; i < buttons.length(); i++) {
+            JSONObject button = buttons.getJSONObject(i);
+
+            String buttonText = button.getString("n");
+            button.remove("n");
+            String buttonId;
+            if (button.has("i")) {
+               buttonId = button.getString("i");
+               button.remove("i");
+            } else
+               buttonId = buttonText;
+
+            button.put("id", buttonId);
+            button.put("text", buttonText);
+
+            if (button.has("p")) {
+               button.put("icon", button.getString("p"));
+               button.remove("p");
+            }
+         }
+
+         additionalDataJSON.put("actionButtons", buttons);
+         additionalDataJSON.put("actionSelected", NotificationBundleProcessor.DEFAULT_ACTION);
+
+         json.put("custom", custom.toString());
+      } catch (JSONException e) {
+         e.printStackTrace();
+      }
+   }
+
+   JSONObject getJson() {
+      return json;
+   }
+
+   JSONObject getCustom() {
+      return custom;
+   }
+
+   String getNotificationId() {
+      return notificationId;
+   }
+
+   String getGroup() {
+      return json.optString("grp", null);
+   }
+
+   // Serialized once and reused for the database and every Intent extra.
+   String getJsonString() {
+      if (jsonString == null)
+         jsonString = json.toString();
+      return jsonString;
+   }
+
+   JSONArray getActionButtons() {
+      JSONObject additionalData = custom.optJSONObject("a");
+      if (additionalData == null)
+         return null;
+      return additionalData.optJSONArray("actionButtons");
+   }
+
+   // Shallow copy of the payload with an extra top level key, for open Intents.
+   JSONObject copyWith(String key, Object value) throws JSONException {
+      JSONObject copy = new JSONObject();
+      Iterator<String> keys = json.keys();
+      while (keys.hasNext()) {
+         String name = keys.next();
+         copy.put(name, json.opt(name));
+      }
+      copy.put(key, value);
+      return copy;
+   }
+
+   OSNotificationPayload toPayload() {
+      OSNotificationPayload notification = new OSNotificationPayload();
+      try {
+         notification.notificationID = custom.optString("i");
+         notification.rawPayload = getJsonString();
+         notification.launchURL = custom.optString("u", null);
+
+         notification.body = json.optString("alert", null);
+         notification.title = json.optString("title", null);
+         notification.smallIcon = json.optString("sicon", null);
+         notification.bigPicture = json.optString("bicon", null);
+         notification.largeIcon = json.optString("licon", null);
+         notification.sound = json.optString("sound", null);
+         notification.groupKey = json.optString("grp", null);
+         notification.groupMessage = json.optString("grp_msg", null);
+         notification.smallIconAccentColor = json.optString("bgac", null);
+         notification.ledColor = json.optString("ledc", null);
+         String visibility = json.optString("vis", null);
+         if (visibility != null)
+            notification.lockScreenVisibility = Integer.parseInt(visibility);
+         notification.fromProjectNumber = json.optString("from", null);
+         notification.priority = json.optInt("pri", 0);
+         String collapseKey = json.optString("collapse_key", null);
+         if (!"do_not_collapse".equals(collapseKey))
+            notification.collapseId = collapseKey;
+
+         try {
+            setAdditionalData(notification);
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload.actionButtons values!", t);
+         }
+
+         try {
+            setBackgroundImageLayout(notification);
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload.backgroundImageLayout values!", t);
+         }
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error assigning OSNotificationPayload values!", t);
+      }
+
+      return notification;
+   }
+
+   // additionalData is a shallow copy so the developer can't change the shared message.
+   private void setAdditionalData(OSNotificationPayload notification) throws Throwable {
+      JSONObject additionalData = custom.optJSONObject("a");
+      if (additionalData == null)
+         return;
+
+      List<String> names = new ArrayList<>();
+      Iterator<String> keys = additionalData.keys();
+      while (keys.hasNext()) {
+         String name = keys.next();
+         if (!"actionButtons".equals(name) && !"actionSelected".equals(name))
+            names.add(name);
+      }
+      notification.additionalData = new JSONObject(additionalData, names.toArray(new String[names.size()]));
+
+      JSONArray jsonActionButtons = additionalData.optJSONArray("actionButtons");
+      if (jsonActionButtons == null)
+         return;
+
+      notification.actionButtons = new ArrayList<>();
+      for (int i = 0; i < jsonActionButtons.length(); i++) {
+         JSONObject jsonActionButton = jsonActionButtons.getJSONObject(i);
+         OSNotificationPayload.ActionButton actionButton = new OSNotificationPayload.ActionButton();
+         actionButton.id = jsonActionButton.optString("id", null);
+         actionButton.text = jsonActionButton.optString("text", null);
+         actionButton.icon = jsonActionButton.optString("icon", null);
+         notification.actionButtons.add(actionButton);
+      }
+   }
+
+   private void setBackgroundImageLayout(OSNotificationPayload notification) throws Throwable {
+      String jsonStrBgImage = json.optString("bg_img", null);
+      if (jsonStrBgImage != null) {
+         JSONObject jsonBgImage = new JSONObject(jsonStrBgImage);
+         notification.backgroundImageLayout = new OSNotificationPayload.BackgroundImageLayout();
+         notification.backgroundImageLayout.image = jsonBgImage.optString("img");
+         notification.backgroundImageLayout.titleTextColor = jsonBgImage.optString("tc");
+         notification.backgroundImageLayout.bodyTextColor = jsonBgImage.optString("bc");
+      }
+   }
+
+   static int getBuildCount() {
+      return buildCount;
+   }
+}
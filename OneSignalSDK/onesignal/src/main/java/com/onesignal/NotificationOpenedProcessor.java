@@ -77,32 +77,43 @@ public class NotificationOpenedProcessor {
          }
       }
 
-      OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(context);
-      SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
-      writableDb.beginTransaction();
-      try {
-         // We just opened a summary notification.
-         if (!dismissed && summaryGroup != null)
-            addChildNotifications(dataArray, summaryGroup, writableDb);
-
-         markNotificationsConsumed(writableDb);
-
-         // Notification is not a summary type but a single notification part of a group.
-         if (summaryGroup == null && intent.getStringExtra("grp") != null)
-            updateSummaryNotification(writableDb);
-         writableDb.setTransactionSuccessful();
-      } catch (Exception e) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error processing notification open or dismiss record! ", e);
-      } finally {
-         writableDb.endTransaction();
+      final JSONArray finalDataArray = dataArray;
+      final boolean openedSummary = !dismissed && summaryGroup != null;
+      final boolean openedGroupChild = summaryGroup == null && intent.getStringExtra("grp") != null;
+      // Only database work in the write, the summary is rebuilt after it commits so the writer lock isn't held
+      //   over image decoding and notify().
+      Boolean rebuildSummary = OneSignalDbExecutor.write(context, "Error processing notification open or dismiss record! ", new OneSignalDbExecutor.WriteTask<Boolean>() {
+         @Override
+         public Boolean run(SQLiteDatabase writableDb) {
+            // We just opened a summary notification.
+            if (openedSummary)
+               addChildNotifications(finalDataArray, intent.getStringExtra("summary"), writableDb);
+
+            if (openedGroupChild)
+               NotificationGroupIndex.removeNotification(writableDb, intent.getIntExtra("notificationId", 0));
+            else if (intent.getStringExtra("summary") != null)
+               NotificationGroupIndex.removeGroup(writableDb, intent.getStringExtra("summary"));
+
+            markNotificationsConsumed(writableDb);
+
+            // Notification is not a summary type but a single notification part of a group.
+            return openedGroupChild && updateSummaryRecords(writableDb);
+         }
+      });
+
+      if (Boolean.TRUE.equals(rebuildSummary)) {
+         try {
+            GenerateNotification.createSummaryNotification(context, true, NotificationMessage.fromJson(new JSONObject().put("grp", intent.getStringExtra("grp"))));
+         } catch (JSONException e) {}
       }
+      BadgeCountUpdater.update(OneSignalDbHelper.getInstance(context).getReadableDatabase(), context);
 
       if (!dismissed)
          OneSignal.handleNotificationOpen(context, dataArray, inIntent.getBooleanExtra("from_alert", false));
    }
 
    private static void addChildNotifications(JSONArray dataArray, String summaryGroup, SQLiteDatabase writableDb) {
-      String[] retColumn = { NotificationTable.COLUMN_NAME_FULL_DATA };
+      String[] retColumn = { NotificationTable._ID };
       String[] whereArgs = { summaryGroup };
 
       Cursor cursor = writableDb.query(
@@ -119,7 +130,7 @@ public class NotificationOpenedProcessor {
          cursor.moveToFirst();
          do {
             try {
-               String jsonStr = cursor.getString(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_FULL_DATA));
+               String jsonStr = NotificationPayloadStore.get(writableDb, cursor.getLong(0));
                dataArray.put(new JSONObject(jsonStr));
             } catch (Throwable t) {
                OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Could not parse JSON of sub notification in group: " + summaryGroup);
@@ -143,32 +154,20 @@ public class NotificationOpenedProcessor {
          whereStr = NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID + " = " + intent.getIntExtra("notificationId", 0);
 
       writableDb.update(NotificationTable.TABLE_NAME, newContentValuesWithConsumed(), whereStr, whereArgs);
-      BadgeCountUpdater.update(writableDb, context);
    }
 
-   private static void updateSummaryNotification(SQLiteDatabase writableDb) {
+   // Returns true if children are left and the summary notification needs to be rebuilt.
+   private static boolean updateSummaryRecords(SQLiteDatabase writableDb) {
       String grpId = intent.getStringExtra("grp");
 
-      Cursor cursor = writableDb.query(
-            NotificationTable.TABLE_NAME,
-            new String[] { NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID }, // retColumn
-            NotificationTable.COLUMN_NAME_GROUP_ID + " = ? AND " +   // Where String
-                  NotificationTable.COLUMN_NAME_DISMISSED + " = 0 AND " +
-                  NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
-                  NotificationTable.COLUMN_NAME_IS_SUMMARY + " = 0" ,
-            new String[] { grpId }, // whereArgs
-            null, null, null);
-
       // All individual notifications consumed, make summary notification as consumed as well.
-      if (cursor.getCount() == 0)
+      if (NotificationGroupIndex.get(writableDb, grpId).count == 0) {
          writableDb.update(NotificationTable.TABLE_NAME, newContentValuesWithConsumed(), NotificationTable.COLUMN_NAME_GROUP_ID + " = ?", new String[] {grpId });
-      else {
-         try {
-            GenerateNotification.createSummaryNotification(context, true, new JSONObject("{\"grp\": \"" + grpId + "\"}"));
-         } catch (JSONException e) {}
+         NotificationGroupIndex.removeGroup(writableDb, grpId);
+         return false;
       }
 
-      cursor.close();
+      return true;
    }
 
    private static ContentValues newContentValuesWithConsumed() {
@@ -0,0 +1,105 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Coalesces notification opened reports, such as all the children of an opened group summary.
+//   The API has no bulk opened endpoint so each id is still its own notifications/<id> PUT. Instead of a request
+//   task per id, the whole burst is saved to the OutboundRequestQueue in one transaction and sent back to back on its
+//   single replay thread after a short window, reusing the same kept alive connection.
+//   Ids already reported recently are dropped.
+class NotificationOpenedReporter {
+
+   static final long COALESCE_WINDOW = 1000;
+   private static final int MAX_RECENT_IDS = 100;
+
+   private static final Object reportLock = new Object();
+
+   private static Map<String, Boolean> recentlyReportedIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+         return size() > MAX_RECENT_IDS;
+      }
+   };
+
+   private static int openedCount, coalescedCount, requestsSavedCount;
+
+   static void report(Context context, List<String> notificationIds, JSONObject jsonBody) {
+      List<String> urls = new ArrayList<>(notificationIds.size());
+      List<JSONObject> jsonBodies = new ArrayList<>(notificationIds.size());
+
+      synchronized (reportLock) {
+         for (String notificationId : notificationIds) {
+            openedCount++;
+            if (recentlyReportedIds.put(notificationId, Boolean.TRUE) != null) {
+               requestsSavedCount++;
+               continue;
+            }
+
+            urls.add("notifications/" + notificationId);
+            jsonBodies.add(jsonBody);
+         }
+         coalescedCount += urls.size();
+      }
+
+      if (urls.isEmpty())
+         return;
+
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Reporting " + urls.size() + " opened notification(s).");
+      OutboundRequestQueue.enqueueBatch(context, OutboundRequestQueue.METHOD_PUT, urls, jsonBodies, COALESCE_WINDOW);
+   }
+
+   // Opened ids passed to report.
+   static int getOpenedCount() {
+      synchronized (reportLock) {
+         return openedCount;
+      }
+   }
+
+   // Ids sent through the shared replay thread instead of a request task of their own.
+   static int getCoalescedCount() {
+      synchronized (reportLock) {
+         return coalescedCount;
+      }
+   }
+
+   // Duplicate ids that were not sent at all.
+   static int getRequestsSavedCount() {
+      synchronized (reportLock) {
+         return requestsSavedCount;
+      }
+   }
+}
@@ -0,0 +1,128 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.onesignal.OneSignalDbContract.NotificationPayloadTable;
+import com.onesignal.OneSignalDbContract.NotificationTable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Full GCM payloads of saved notifications, deflated and kept in notification_payload keyed by the notification row _id.
+//   Keeps the notification table rows small so badge, summary and restore scans only read ids and flags.
+//   Payloads are only read when a notification is restored, a summary is rebuilt or a group is opened.
+class NotificationPayloadStore {
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   static void save(SQLiteDatabase writableDb, long notificationRowId, String fullData) {
+      ContentValues values = new ContentValues();
+      values.put(NotificationPayloadTable._ID, notificationRowId);
+      values.put(NotificationPayloadTable.COLUMN_NAME_DATA, compress(fullData));
+      writableDb.insertWithOnConflict(NotificationPayloadTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+   }
+
+   // Returns null if there is no payload for the row.
+   static String get(SQLiteDatabase readableDb, long notificationRowId) {
+      Cursor cursor = readableDb.query(NotificationPayloadTable.TABLE_NAME,
+                                       new String[] { NotificationPayloadTable.COLUMN_NAME_DATA },
+                                       NotificationPayloadTable._ID + " = " + notificationRowId,
+                                       null, null, null, null);
+      try {
+         if (!cursor.moveToFirst())
+            return null;
+         return decompress(cursor.getBlob(0));
+      } catch (DataFormatException e) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Could not read payload of notification record " + notificationRowId, e);
+         return null;
+      } finally {
+         cursor.close();
+      }
+   }
+
+   // Database version 6, moves full_data of existing rows out of the notification table.
+   static void moveFullDataToSideTable(SQLiteDatabase db) {
+      Cursor cursor = db.query(NotificationTable.TABLE_NAME,
+                               new String[] { NotificationTable._ID, NotificationTable.COLUMN_NAME_FULL_DATA },
+                               NotificationTable.COLUMN_NAME_FULL_DATA + " IS NOT NULL",
+                               null, null, null, null);
+      try {
+         while (cursor.moveToNext())
+            save(db, cursor.getLong(0), cursor.getString(1));
+      } finally {
+         cursor.close();
+      }
+
+      ContentValues values = new ContentValues();
+      values.putNull(NotificationTable.COLUMN_NAME_FULL_DATA);
+      db.update(NotificationTable.TABLE_NAME, values, null, null);
+   }
+
+   private static byte[] compress(String data) {
+      Deflater deflater = new Deflater();
+      try {
+         deflater.setInput(data.getBytes(UTF_8));
+         deflater.finish();
+
+         ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length() / 2 + 16);
+         byte[] buffer = new byte[1024];
+         while (!deflater.finished())
+            outputStream.write(buffer, 0, deflater.deflate(buffer));
+         return outputStream.toByteArray();
+      } finally {
+         deflater.end();
+      }
+   }
+
+   private static String decompress(byte[] data) throws DataFormatException {
+      Inflater inflater = new Inflater();
+      try {
+         inflater.setInput(data);
+
+         ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 3);
+         byte[] buffer = new byte[1024];
+         while (!inflater.finished()) {
+            int count = inflater.inflate(buffer);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+               throw new DataFormatException("Truncated notification payload");
+            outputStream.write(buffer, 0, count);
+         }
+         return new String(outputStream.toByteArray(), UTF_8);
+      } finally {
+         inflater.end();
+      }
+   }
+}
@@ -0,0 +1,156 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.R.drawable;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Remembers what notification resource names resolved to, found or not, so rendering a notification doesn't
+//   repeat Resources.getIdentifier reflection, try to open missing asset files or decode the same default image.
+// Filled in lazily as names are looked up. Cleared by UpgradeReceiver as an update can add or remove resources.
+class NotificationResourceCache {
+
+   private static final List<String> IMAGE_EXTENSIONS = Arrays.asList("", ".png", ".webp", ".jpg", ".gif", ".bmp");
+
+   // "type/name" to resource id, 0 if it doesn't exist.
+   private static final Map<String, Integer> identifiers = new HashMap<>();
+   // Asset name to the file that exists for it, with extension. "" if none.
+   private static final Map<String, String> assetPaths = new HashMap<>();
+   // Asset directory to its file names, read once per directory instead of opening each candidate.
+   private static final Map<String, Set<String>> assetDirs = new HashMap<>();
+   // Default images decoded at a size, null if there isn't one.
+   private static final Map<String, Bitmap> defaultBitmaps = new HashMap<>();
+
+   private static int hitCount, missCount;
+
+   static synchronized int getIdentifier(Resources resources, String name, String type, String packageName) {
+      String key = type + "/" + name;
+      Integer id = identifiers.get(key);
+      if (id != null) {
+         hitCount++;
+         return id;
+      }
+
+      missCount++;
+      id = resources.getIdentifier(name, type, packageName);
+      identifiers.put(key, id);
+      return id;
+   }
+
+   static synchronized int getSystemDrawableId(String name) {
+      String key = "android:drawable/" + name;
+      Integer id = identifiers.get(key);
+      if (id != null) {
+         hitCount++;
+         return id;
+      }
+
+      missCount++;
+      id = 0;
+      try {
+         id = drawable.class.getField(name).getInt(null);
+      } catch (Throwable t) {}
+      identifiers.put(key, id);
+      return id;
+   }
+
+   // Returns the asset for name, trying it as is and then with each image extension, or null if there is none.
+   static synchronized String resolveImageAsset(Context context, String name) {
+      String path = assetPaths.get(name);
+      if (path != null) {
+         hitCount++;
+         return path.isEmpty() ? null : path;
+      }
+
+      missCount++;
+      int slash = name.lastIndexOf('/');
+      String dir = slash == -1 ? "" : name.substring(0, slash);
+      String fileName = name.substring(slash + 1);
+
+      Set<String> files = assetDirs.get(dir);
+      if (files == null) {
+         files = new HashSet<>();
+         try {
+            String[] list = context.getAssets().list(dir);
+            if (list != null)
+               files.addAll(Arrays.asList(list));
+         } catch (Throwable t) {}
+         assetDirs.put(dir, files);
+      }
+
+      path = "";
+      for (String extension : IMAGE_EXTENSIONS) {
+         if (files.contains(fileName + extension)) {
+            path = name + extension;
+            break;
+         }
+      }
+
+      assetPaths.put(name, path);
+      return path.isEmpty() ? null : path;
+   }
+
+   static synchronized boolean hasDefaultBitmap(String key) {
+      return defaultBitmaps.containsKey(key);
+   }
+
+   static synchronized Bitmap getDefaultBitmap(String key) {
+      hitCount++;
+      return defaultBitmaps.get(key);
+   }
+
+   static synchronized void putDefaultBitmap(String key, Bitmap bitmap) {
+      missCount++;
+      defaultBitmaps.put(key, bitmap);
+   }
+
+   static synchronized void clear() {
+      identifiers.clear();
+      assetPaths.clear();
+      assetDirs.clear();
+      defaultBitmaps.clear();
+   }
+
+   static int getHitCount() {
+      return hitCount;
+   }
+
+   static int getMissCount() {
+      return missCount;
+   }
+}
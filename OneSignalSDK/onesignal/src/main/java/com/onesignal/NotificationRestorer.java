@@ -27,7 +27,6 @@
 
 package com.onesignal;
 
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
@@ -35,10 +34,37 @@ import android.database.sqlite.SQLiteDatabase;
 
 import com.onesignal.OneSignalDbContract.NotificationTable;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Redisplays notifications still in the notification area after a reboot or app upgrade.
+//   Notifications are rendered in this process in batches instead of starting a service per notification.
+//   Only the newest MAX_RESTORE_CANDIDATES are considered and at most MAX_RESTORE_COUNT are shown, highest "pri" first,
+//   as Android drops an app's notifications past 50 anyway.
+// With a NotificationExtenderService each batch is handed to it in a single Intent so the app can still process them.
 class NotificationRestorer {
 
+   private static final int MAX_RESTORE_CANDIDATES = 100;
+   static final int MAX_RESTORE_COUNT = 49;
+   private static final int RESTORE_BATCH_SIZE = 10;
+
    public static boolean restored;
 
+   private static long lastRestoreDuration;
+   private static int lastRestoreCount;
+
+   private static class RestoreRecord {
+      long rowId;
+      int androidNotificationId;
+      int priority;
+      NotificationMessage message;
+   }
+
    static void asyncRestore(final Context context) {
       new Thread(new Runnable() {
          @Override
@@ -53,23 +79,39 @@ class NotificationRestorer {
          return;
       restored = true;
 
-      OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(context);
-      SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
+      NotificationRetention.schedule(context);
 
-      writableDb.beginTransaction();
+      long startTime = System.currentTimeMillis();
+      int restoredCount = 0;
       try {
-         NotificationBundleProcessor.deleteOldNotifications(writableDb);
-         writableDb.setTransactionSuccessful();
+         List<RestoreRecord> records = selectRecords(context);
+         Intent extenderIntent = NotificationExtenderService.getIntent(context);
+
+         for (int i = 0; i < records.size(); i += RESTORE_BATCH_SIZE) {
+            List<RestoreRecord> batch = records.subList(i, Math.min(i + RESTORE_BATCH_SIZE, records.size()));
+            if (extenderIntent != null)
+               startExtender(context, batch);
+            else
+               render(context, batch);
+            restoredCount += batch.size();
+         }
       } catch (Throwable t) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error deleting old notification records! ", t);
-      } finally {
-         writableDb.endTransaction();
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error restoring notification records! ", t);
       }
 
-      String[] retColumn = { NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID,
-                             NotificationTable.COLUMN_NAME_FULL_DATA };
+      lastRestoreCount = restoredCount;
+      lastRestoreDuration = System.currentTimeMillis() - startTime;
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Restored " + restoredCount + " notifications in " + lastRestoreDuration + "ms.");
+   }
+
+   // Returns the records to show, old to new so the newest ends up on top.
+   private static List<RestoreRecord> selectRecords(Context context) {
+      List<RestoreRecord> records = new ArrayList<>();
 
-      SQLiteDatabase readableDb = dbHelper.getReadableDatabase();
+      String[] retColumn = { NotificationTable._ID,
+                             NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID };
+
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDatabase();
       Cursor cursor = readableDb.query(
           NotificationTable.TABLE_NAME,
           retColumn,
@@ -79,37 +121,88 @@ class NotificationRestorer {
             NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
             NotificationTable.COLUMN_NAME_IS_SUMMARY + " = 0",
           null,
-          null,                            // group by
-          null,                            // filter by row groups
-          NotificationTable._ID + " ASC"   // sort order, old to new
+          null,                             // group by
+          null,                             // filter by row groups
+          NotificationTable._ID + " DESC",  // sort order, new to old
+          String.valueOf(MAX_RESTORE_CANDIDATES)
       );
 
       try {
-         if (cursor.moveToFirst()) {
-            boolean useExtender = (NotificationExtenderService.getIntent(context) != null);
+         while (cursor.moveToNext()) {
+            RestoreRecord record = new RestoreRecord();
+            record.rowId = cursor.getLong(0);
+            record.androidNotificationId = cursor.getInt(1);
+            records.add(record);
+         }
+      } finally {
+         cursor.close();
+      }
+
+      for (int i = records.size() - 1; i >= 0; i--) {
+         RestoreRecord record = records.get(i);
+         String fullData = NotificationPayloadStore.get(readableDb, record.rowId);
+         try {
+            record.message = NotificationMessage.fromJson(fullData);
+            record.priority = record.message.getJson().optInt("pri", 0);
+         } catch (Throwable t) {
+            records.remove(i);
+         }
+      }
 
-            do {
-               int existingId = cursor.getInt(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID));
-               String fullData = cursor.getString(cursor.getColumnIndex(NotificationTable.COLUMN_NAME_FULL_DATA));
+      // Already new to old, a stable sort keeps the newest first within a priority.
+      Collections.sort(records, new Comparator<RestoreRecord>() {
+         @Override
+         public int compare(RestoreRecord lhs, RestoreRecord rhs) {
+            return rhs.priority < lhs.priority ? -1 : (rhs.priority == lhs.priority ? 0 : 1);
+         }
+      });
+      if (records.size() > MAX_RESTORE_COUNT)
+         records = new ArrayList<>(records.subList(0, MAX_RESTORE_COUNT));
 
-               Intent serviceIntent;
+      Collections.sort(records, new Comparator<RestoreRecord>() {
+         @Override
+         public int compare(RestoreRecord lhs, RestoreRecord rhs) {
+            return lhs.rowId < rhs.rowId ? -1 : (lhs.rowId == rhs.rowId ? 0 : 1);
+         }
+      });
 
-               if (useExtender)
-                  serviceIntent = NotificationExtenderService.getIntent(context);
-               else
-                  serviceIntent = new Intent().setComponent(new ComponentName(context.getPackageName(), GcmIntentService.class.getName()));
+      return records;
+   }
 
-               serviceIntent.putExtra("json_payload", fullData);
-               serviceIntent.putExtra("android_notif_id", existingId);
-               serviceIntent.putExtra("restoring", true);
-               context.startService(serviceIntent);
-            } while (cursor.moveToNext());
+   private static void render(Context context, List<RestoreRecord> batch) {
+      for (RestoreRecord record : batch) {
+         NotificationExtenderService.OverrideSettings overrideSettings = new NotificationExtenderService.OverrideSettings();
+         overrideSettings.androidNotificationId = record.androidNotificationId;
+         try {
+            NotificationBundleProcessor.Process(context, true, record.message, overrideSettings);
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error restoring notification " + record.androidNotificationId + "! ", t);
          }
-      } catch (Throwable t) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error restoring notification records! ", t);
-      } finally {
-         if (cursor != null && !cursor.isClosed())
-            cursor.close();
       }
    }
+
+   private static void startExtender(Context context, List<RestoreRecord> batch) {
+      JSONArray restoreBatch = new JSONArray();
+      for (RestoreRecord record : batch) {
+         try {
+            JSONObject item = new JSONObject();
+            item.put("json_payload", record.message.getJson());
+            item.put("android_notif_id", record.androidNotificationId);
+            restoreBatch.put(item);
+         } catch (Throwable t) {}
+      }
+
+      Intent serviceIntent = NotificationExtenderService.getIntent(context);
+      serviceIntent.putExtra("restore_batch", restoreBatch.toString());
+      serviceIntent.putExtra("restoring", true);
+      context.startService(serviceIntent);
+   }
+
+   static long getLastRestoreDuration() {
+      return lastRestoreDuration;
+   }
+
+   static int getLastRestoreCount() {
+      return lastRestoreCount;
+   }
 }
@@ -0,0 +1,208 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+
+import com.onesignal.OneSignalDbContract.NotificationPayloadTable;
+import com.onesignal.OneSignalDbContract.NotificationTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Deletes old notification records in the background so saving a notification never pays for cleanup.
+//   Records older than maxAgeSeconds, and the oldest records past maxCount, are removed PRUNE_BATCH_SIZE at a time,
+//   each batch in its own short transaction with a pause in between so incoming notifications are never blocked for long.
+//   A prune is scheduled PRUNE_DELAY after a notification is saved or the app starts, at most once per PRUNE_INTERVAL.
+// The limits are saved by init so processes started by a push or on boot prune with the same ones.
+class NotificationRetention {
+
+   static final long DEFAULT_MAX_AGE_SECONDS = 4 * 7 * 24 * 60 * 60;
+   static final int DEFAULT_MAX_COUNT = 1000;
+
+   private static final int PRUNE_BATCH_SIZE = 50;
+   private static final long PRUNE_DELAY = 10 * 1000;
+   private static final long PRUNE_BATCH_PAUSE = 500;
+   private static final long PRUNE_INTERVAL = 60 * 60 * 1000;
+
+   private static final String PREF_MAX_AGE_SECONDS = "GT_NOTIFICATION_MAX_AGE_SECONDS";
+   private static final String PREF_MAX_COUNT = "GT_NOTIFICATION_MAX_COUNT";
+
+   private static final Object retentionLock = new Object();
+   static PruneHandlerThread pruneHandlerThread;
+   private static boolean pruneScheduled;
+   private static long lastPruneTime;
+
+   private static int prunedCount;
+
+   static void schedule(Context context) {
+      synchronized (retentionLock) {
+         if (pruneScheduled || (lastPruneTime != 0 && System.currentTimeMillis() - lastPruneTime < PRUNE_INTERVAL))
+            return;
+
+         if (pruneHandlerThread == null)
+            pruneHandlerThread = new PruneHandlerThread(context.getApplicationContext());
+         pruneScheduled = true;
+         pruneHandlerThread.post(PRUNE_DELAY);
+      }
+   }
+
+   static void saveLimits(Context context, long maxAgeSeconds, int maxCount) {
+      OneSignalPrefs.saveLong(context, PREF_MAX_AGE_SECONDS, maxAgeSeconds);
+      OneSignalPrefs.saveLong(context, PREF_MAX_COUNT, maxCount);
+   }
+
+   static int getPrunedCount() {
+      return prunedCount;
+   }
+
+   // Returns the _ids of the next batch to delete, oldest records first.
+   private static List<Long> nextBatch(SQLiteDatabase db, long maxAgeSeconds, long maxCount) {
+      List<Long> rowIds = new ArrayList<>();
+
+      long cutoffTime = (System.currentTimeMillis() / 1000L) - maxAgeSeconds;
+      Cursor cursor = db.query(NotificationTable.TABLE_NAME,
+                               new String[] { NotificationTable._ID },
+                               NotificationTable.COLUMN_NAME_CREATED_TIME + " < " + cutoffTime,
+                               null, null, null,
+                               NotificationTable._ID + " ASC",
+                               String.valueOf(PRUNE_BATCH_SIZE));
+      try {
+         while (cursor.moveToNext())
+            rowIds.add(cursor.getLong(0));
+      } finally {
+         cursor.close();
+      }
+
+      if (!rowIds.isEmpty())
+         return rowIds;
+
+      // Nothing too old, trim down to maxCount keeping the newest.
+      cursor = db.query(NotificationTable.TABLE_NAME,
+                        new String[] { NotificationTable._ID },
+                        null, null, null, null,
+                        NotificationTable._ID + " DESC",
+                        maxCount + "," + PRUNE_BATCH_SIZE);
+      try {
+         while (cursor.moveToNext())
+            rowIds.add(cursor.getLong(0));
+      } finally {
+         cursor.close();
+      }
+
+      return rowIds;
+   }
+
+   private static List<String> groupIdsOf(SQLiteDatabase db, String whereStr) {
+      List<String> groupIds = new ArrayList<>();
+      Cursor cursor = db.query(true, NotificationTable.TABLE_NAME,
+                               new String[] { NotificationTable.COLUMN_NAME_GROUP_ID },
+                               whereStr + " AND " + NotificationTable.COLUMN_NAME_GROUP_ID + " IS NOT NULL",
+                               null, null, null, null, null);
+      try {
+         while (cursor.moveToNext())
+            groupIds.add(cursor.getString(0));
+      } finally {
+         cursor.close();
+      }
+      return groupIds;
+   }
+
+   // Returns the number of records deleted.
+   private static int pruneBatch(Context context) {
+      final long maxAgeSeconds = OneSignalPrefs.getLong(context, PREF_MAX_AGE_SECONDS, DEFAULT_MAX_AGE_SECONDS);
+      final long maxCount = OneSignalPrefs.getLong(context, PREF_MAX_COUNT, DEFAULT_MAX_COUNT);
+
+      Integer deleted = OneSignalDbExecutor.write(context, "Error deleting old notification records! ", new OneSignalDbExecutor.WriteTask<Integer>() {
+         @Override
+         public Integer run(SQLiteDatabase writableDb) {
+            List<Long> rowIds = nextBatch(writableDb, maxAgeSeconds, maxCount);
+            if (rowIds.isEmpty())
+               return 0;
+
+            String whereStr = NotificationTable._ID + " IN (" + TextUtils.join(",", rowIds) + ")";
+            writableDb.delete(NotificationPayloadTable.TABLE_NAME, whereStr, null);
+            // Groups that lose rows are rebuilt on next use, the rest keep their index.
+            for (String groupId : groupIdsOf(writableDb, whereStr))
+               NotificationGroupIndex.removeGroup(writableDb, groupId);
+            return writableDb.delete(NotificationTable.TABLE_NAME, whereStr, null);
+         }
+      });
+
+      if (deleted == null || deleted == 0)
+         return 0;
+
+      BadgeCountUpdater.update(OneSignalDbHelper.getInstance(context).getReadableDatabase(), context);
+      return deleted;
+   }
+
+   static class PruneHandlerThread extends HandlerThread {
+      private Handler mHandler;
+      private Context mContext;
+
+      private final Runnable pruneRunnable = new Runnable() {
+         @Override
+         public void run() {
+            int deleted = 0;
+            try {
+               deleted = pruneBatch(mContext);
+            } catch (Throwable t) {
+               OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error deleting old notification records! ", t);
+            }
+
+            synchronized (retentionLock) {
+               prunedCount += deleted;
+               if (deleted == PRUNE_BATCH_SIZE) {
+                  post(PRUNE_BATCH_PAUSE);
+                  return;
+               }
+
+               pruneScheduled = false;
+               lastPruneTime = System.currentTimeMillis();
+            }
+         }
+      };
+
+      PruneHandlerThread(Context context) {
+         super("OSH_NotificationRetention");
+         mContext = context;
+         start();
+         mHandler = new Handler(getLooper());
+      }
+
+      void post(long delay) {
+         mHandler.postDelayed(pruneRunnable, delay);
+      }
+   }
+}
@@ -105,6 +105,9 @@ public class OneSignal {
       NotificationReceivedHandler mNotificationReceivedHandler;
       boolean mPromptLocation;
       boolean mDisableGmsMissingPrompt;
+      boolean mRequestCompression;
+      long mNotificationMaxAgeSeconds = NotificationRetention.DEFAULT_MAX_AGE_SECONDS;
+      int mNotificationMaxCount = NotificationRetention.DEFAULT_MAX_COUNT;
       OSInFocusDisplayOption mDisplayOption = OSInFocusDisplayOption.InAppAlert;
    
       private Builder() {}
@@ -138,6 +141,25 @@ public class OneSignal {
          return this;
       }
 
+      // Gzips larger request bodies such as player updates with tags and purchases.
+      public Builder enableRequestCompression(boolean enable) {
+         mRequestCompression = enable;
+         return this;
+      }
+
+      // How long, and how many, received notifications are kept for restoring, grouping and duplicate checks.
+      //   Defaults to 4 weeks and 1000.
+      public Builder notificationRetention(int maxAgeDays, int maxCount) {
+         if (maxAgeDays <= 0 || maxCount <= 0) {
+            Log(LOG_LEVEL.ERROR, "notificationRetention maxAgeDays and maxCount must be greater than 0, keeping the defaults.");
+            return this;
+         }
+
+         mNotificationMaxAgeSeconds = maxAgeDays * 24L * 60 * 60;
+         mNotificationMaxCount = maxCount;
+         return this;
+      }
+
       public void init() {
          OneSignal.init(this);
       }
@@ -204,6 +226,9 @@ public class OneSignal {
       Context context = mInitBuilder.mContext;
       mInitBuilder.mContext = null; // Clear to prevent leaks.
 
+      OneSignalRestClient.setCompressRequests(context, mInitBuilder.mRequestCompression);
+      NotificationRetention.saveLimits(context, mInitBuilder.mNotificationMaxAgeSeconds, mInitBuilder.mNotificationMaxCount);
+
       try {
          ApplicationInfo ai = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
          Bundle bundle = ai.metaData;
@@ -303,6 +328,8 @@ public class OneSignal {
       if (TrackGooglePurchase.CanTrack(appContext))
          trackGooglePurchase = new TrackGooglePurchase(appContext);
 
+      OutboundRequestQueue.replay(appContext);
+
       initDone = true;
    }
 
@@ -381,7 +408,7 @@ public class OneSignal {
          return;
       }
 
-      OneSignalRestClient.ResponseHandler responseHandler = new OneSignalRestClient.ResponseHandler() {
+      OneSignalRestClient.JSONResponseHandler responseHandler = new OneSignalRestClient.JSONResponseHandler() {
          @Override
          void onFailure(int statusCode, String response, Throwable throwable) {
             new Thread(new Runnable() {
@@ -392,13 +419,12 @@ public class OneSignal {
                   androidParamsReties++;
                   makeAndroidParamsRequest();
                }
-            });
+            }).start();
          }
 
          @Override
-         void onSuccess(String response) {
+         void onSuccess(JSONObject responseJson) {
             try {
-               JSONObject responseJson = new JSONObject(response);
                if (responseJson.has("android_sender_id"))
                   mGoogleProjectNumber = responseJson.getString("android_sender_id");
                awl = responseJson.getJSONObject("awl_list");
@@ -455,7 +481,7 @@ public class OneSignal {
       return OneSignal.LOG_LEVEL.VERBOSE;
    }
 
-   private static boolean atLogLevel(LOG_LEVEL level) {
+   static boolean atLogLevel(LOG_LEVEL level) {
       return level.compareTo(visualLogLevel) < 1 || level.compareTo(logCatLevel) < 1;
    }
 
@@ -748,23 +774,27 @@ public class OneSignal {
          if (!json.has("app_id"))
             json.put("app_id", getSavedAppId());
 
-         OneSignalRestClient.post("notifications/", json, new OneSignalRestClient.ResponseHandler() {
+         OneSignalRestClient.post("notifications/", json, new OneSignalRestClient.JSONResponseHandler() {
             @Override
-            public void onSuccess(String response) {
-               Log(LOG_LEVEL.DEBUG, "HTTP create notification success: " + (response != null ? response : "null"));
+            public void onSuccess(JSONObject jsonObject) {
+               Log(LOG_LEVEL.DEBUG, "HTTP create notification success: " + jsonObject);
                if (handler != null) {
                   try {
-                     JSONObject jsonObject = new JSONObject(response);
                      if (jsonObject.has("errors"))
                         handler.onFailure(jsonObject);
                      else
-                        handler.onSuccess(new JSONObject(response));
+                        handler.onSuccess(jsonObject);
                   } catch (Throwable t) {
                      t.printStackTrace();
                   }
                }
             }
 
+            @Override
+            void onParseFailure(String response, Throwable throwable) {
+               // Created but there is no response to hand back, the handler isn't called.
+            }
+
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                logHttpError("create notification failed", statusCode, throwable, response);
@@ -1019,12 +1049,17 @@ public class OneSignal {
    // Called when receiving GCM/ADM message after it has been displayed.
    // Or right when it is received if it is a silent one
    //   If a NotificationExtenderService is present in the developers app this will not fire for silent notifications.
-   static void handleNotificationReceived(JSONArray data, boolean displayed, boolean fromAlert) {
+   static void handleNotificationReceived(NotificationMessage message, int androidNotificationId, boolean displayed, boolean fromAlert) {
       if (mInitBuilder == null || mInitBuilder.mNotificationReceivedHandler == null)
          return;
 
-      OSNotificationOpenResult openResult = generateOsNotificationOpenResult(data, displayed, fromAlert);
-      mInitBuilder.mNotificationReceivedHandler.notificationReceived(openResult.notification);
+      OSNotification notification = new OSNotification();
+      notification.isAppInFocus = isAppActive();
+      notification.shown = displayed;
+      notification.androidNotificationId = androidNotificationId;
+      notification.payload = message.toPayload();
+      notification.displayType = fromAlert ? OSNotification.DisplayType.InAppAlert : OSNotification.DisplayType.Notification;
+      mInitBuilder.mNotificationReceivedHandler.notificationReceived(notification);
    }
 
    // Called when opening a notification
@@ -1054,6 +1089,7 @@ public class OneSignal {
    }
 
    private static void notificationOpenedRESTCall(Context inContext, JSONArray dataArray) {
+      List<String> notificationIds = new ArrayList<>();
       for (int i = 0; i < dataArray.length(); i++) {
          try {
             JSONObject data = dataArray.getJSONObject(i);
@@ -1068,33 +1104,32 @@ public class OneSignal {
             if (!customJson.has("i"))
                continue;
 
-            String notificationId = customJson.optString("i", null);
-
-            JSONObject jsonBody = new JSONObject();
-            jsonBody.put("app_id", getSavedAppId(inContext));
-            jsonBody.put("player_id", getSavedUserId(inContext));
-            jsonBody.put("opened", true);
-
-            OneSignalRestClient.put("notifications/" + notificationId, jsonBody, new OneSignalRestClient.ResponseHandler() {
-               @Override
-               void  onFailure(int statusCode, String response, Throwable throwable) {
-                  logHttpError("sending Notification Opened Failed", statusCode, throwable, response);
-               }
-            });
+            notificationIds.add(customJson.optString("i", null));
          }
          catch(Throwable t){ // JSONException and UnsupportedEncodingException
             Log(LOG_LEVEL.ERROR, "Failed to generate JSON to send notification opened.", t);
          }
       }
+
+      if (notificationIds.isEmpty())
+         return;
+
+      try {
+         JSONObject jsonBody = new JSONObject();
+         jsonBody.put("app_id", getSavedAppId(inContext));
+         jsonBody.put("player_id", getSavedUserId(inContext));
+         jsonBody.put("opened", true);
+
+         NotificationOpenedReporter.report(inContext, notificationIds, jsonBody);
+      } catch (Throwable t) {
+         Log(LOG_LEVEL.ERROR, "Failed to generate JSON to send notification opened.", t);
+      }
    }
 
    private static void SaveAppId(String appId) {
       if (appContext == null)
          return;
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putString("GT_APP_ID", appId);
-      editor.commit();
+      OneSignalPrefs.saveString(appContext, "GT_APP_ID", appId);
    }
 
    static String getSavedAppId() {
@@ -1105,22 +1140,18 @@ public class OneSignal {
       if (inContext == null)
          return "";
 
-      final SharedPreferences prefs = getGcmPreferences(inContext);
-      return prefs.getString("GT_APP_ID", null);
+      return OneSignalPrefs.getString(inContext, "GT_APP_ID", null);
    }
 
    private static String getSavedUserId(Context inContext) {
       if (inContext == null)
          return "";
-      final SharedPreferences prefs = getGcmPreferences(inContext);
-      return prefs.getString("GT_PLAYER_ID", null);
+      return OneSignalPrefs.getString(inContext, "GT_PLAYER_ID", null);
    }
 
    static String getUserId() {
-      if (userId == null && appContext != null) {
-         final SharedPreferences prefs = getGcmPreferences(appContext);
-         userId = prefs.getString("GT_PLAYER_ID", null);
-      }
+      if (userId == null && appContext != null)
+         userId = OneSignalPrefs.getString(appContext, "GT_PLAYER_ID", null);
       return userId;
    }
 
@@ -1128,10 +1159,7 @@ public class OneSignal {
       userId = inUserId;
       if (appContext == null)
          return;
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putString("GT_PLAYER_ID", userId);
-      editor.commit();
+      OneSignalPrefs.saveString(appContext, "GT_PLAYER_ID", userId);
    }
 
    static void updateUserIdDependents(String userId) {
@@ -1145,15 +1173,11 @@ public class OneSignal {
    public static void enableVibrate(boolean enable) {
       if (appContext == null)
          return;
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putBoolean("GT_VIBRATE_ENABLED", enable);
-      editor.apply();
+      OneSignalPrefs.saveBoolean(appContext, "GT_VIBRATE_ENABLED", enable);
    }
 
    static boolean getVibrate(Context context) {
-      final SharedPreferences prefs = getGcmPreferences(context);
-      return prefs.getBoolean("GT_VIBRATE_ENABLED", true);
+      return OneSignalPrefs.getBoolean(context, "GT_VIBRATE_ENABLED", true);
    }
 
    // If true(default) - Sound plays when receiving notification. Vibrates when device is on vibrate only mode.
@@ -1161,27 +1185,19 @@ public class OneSignal {
    public static void enableSound(boolean enable) {
       if (appContext == null)
          return;
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putBoolean("GT_SOUND_ENABLED", enable);
-      editor.apply();
+      OneSignalPrefs.saveBoolean(appContext, "GT_SOUND_ENABLED", enable);
    }
 
    static boolean getSoundEnabled(Context context) {
-      final SharedPreferences prefs = getGcmPreferences(context);
-      return prefs.getBoolean("GT_SOUND_ENABLED", true);
+      return OneSignalPrefs.getBoolean(context, "GT_SOUND_ENABLED", true);
    }
 
    static void setLastSessionTime(long time) {
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putLong("OS_LAST_SESSION_TIME", time);
-      editor.apply();
+      OneSignalPrefs.saveLong(appContext, "OS_LAST_SESSION_TIME", time);
    }
 
    static long getLastSessionTime(Context context) {
-      final SharedPreferences prefs = getGcmPreferences(context);
-      return prefs.getLong("OS_LAST_SESSION_TIME", -31 * 1000);
+      return OneSignalPrefs.getLong(context, "OS_LAST_SESSION_TIME", -31 * 1000);
    }
 
    public static void setInFocusDisplaying(OSInFocusDisplayOption displayOption) {
@@ -1286,47 +1302,42 @@ public class OneSignal {
 
 
       // Mark all notifications as dismissed unless they were already opened.
-      SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
-      writableDb.beginTransaction();
-      try {
-         String whereStr = NotificationTable.COLUMN_NAME_OPENED + " = 0";
-         ContentValues values = new ContentValues();
-         values.put(NotificationTable.COLUMN_NAME_DISMISSED, 1);
-         writableDb.update(NotificationTable.TABLE_NAME, values, whereStr, null);
-         writableDb.setTransactionSuccessful();
-      } catch (Exception e) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error marking all notifications as dismissed! ", e);
-      } finally {
-         writableDb.endTransaction();
-      }
+      OneSignalDbExecutor.write(appContext, "Error marking all notifications as dismissed! ", new OneSignalDbExecutor.WriteTask<Void>() {
+         @Override
+         public Void run(SQLiteDatabase writableDb) {
+            String whereStr = NotificationTable.COLUMN_NAME_OPENED + " = 0";
+            ContentValues values = new ContentValues();
+            values.put(NotificationTable.COLUMN_NAME_DISMISSED, 1);
+            writableDb.update(NotificationTable.TABLE_NAME, values, whereStr, null);
+            NotificationGroupIndex.clear(writableDb);
+            return null;
+         }
+      });
 
       BadgeCountUpdater.updateCount(0, appContext);
    }
 
-   public static void cancelNotification(int id) {
+   public static void cancelNotification(final int id) {
       if (appContext == null) {
          Log(LOG_LEVEL.ERROR, "OneSignal.init has not been called. Could not clear notification id: " + id);
          return;
       }
 
-      OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(appContext);
-      SQLiteDatabase writableDb = dbHelper.getWritableDatabase();
-      writableDb.beginTransaction();
-      try {
-         String whereStr = NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
-                              NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID + " = " + id;
-
-         ContentValues values = new ContentValues();
-         values.put(NotificationTable.COLUMN_NAME_DISMISSED, 1);
-
-         writableDb.update(NotificationTable.TABLE_NAME, values, whereStr, null);
-         BadgeCountUpdater.update(writableDb, appContext);
-         writableDb.setTransactionSuccessful();
-      } catch (Exception e) {
-         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error marking a notification id " + id + " as dismissed! ", e);
-      } finally {
-         writableDb.endTransaction();
-      }
+      OneSignalDbExecutor.write(appContext, "Error marking a notification id " + id + " as dismissed! ", new OneSignalDbExecutor.WriteTask<Void>() {
+         @Override
+         public Void run(SQLiteDatabase writableDb) {
+            String whereStr = NotificationTable.COLUMN_NAME_OPENED + " = 0 AND " +
+                                 NotificationTable.COLUMN_NAME_ANDROID_NOTIFICATION_ID + " = " + id;
+
+            ContentValues values = new ContentValues();
+            values.put(NotificationTable.COLUMN_NAME_DISMISSED, 1);
+
+            NotificationGroupIndex.removeNotification(writableDb, id);
+            writableDb.update(NotificationTable.TABLE_NAME, values, whereStr, null);
+            return null;
+         }
+      });
+      BadgeCountUpdater.update(OneSignalDbHelper.getInstance(appContext).getReadableDatabase(), appContext);
 
       NotificationManager notificationManager = (NotificationManager)appContext.getSystemService(Context.NOTIFICATION_SERVICE);
       notificationManager.cancel(id);
@@ -1341,10 +1352,8 @@ public class OneSignal {
    }
 
    static long GetUnsentActiveTime() {
-      if (unSentActiveTime == -1 && appContext != null) {
-         final SharedPreferences prefs = getGcmPreferences(appContext);
-         unSentActiveTime = prefs.getLong("GT_UNSENT_ACTIVE_TIME", 0);
-      }
+      if (unSentActiveTime == -1 && appContext != null)
+         unSentActiveTime = OneSignalPrefs.getLong(appContext, "GT_UNSENT_ACTIVE_TIME", 0);
 
       Log(LOG_LEVEL.INFO, "GetUnsentActiveTime: " + unSentActiveTime);
 
@@ -1358,10 +1367,7 @@ public class OneSignal {
 
       Log(LOG_LEVEL.INFO, "SaveUnsentActiveTime: " + unSentActiveTime);
 
-      final SharedPreferences prefs = getGcmPreferences(appContext);
-      SharedPreferences.Editor editor = prefs.edit();
-      editor.putLong("GT_UNSENT_ACTIVE_TIME", time);
-      editor.commit();
+      OneSignalPrefs.saveLong(appContext, "GT_UNSENT_ACTIVE_TIME", time);
    }
 
    static SharedPreferences getGcmPreferences(Context context) {
@@ -1372,6 +1378,9 @@ public class OneSignal {
       if (id == null || "".equals(id))
          return false;
 
+      if (!NotificationIdFilter.mightContain(context, id))
+         return false;
+
       OneSignalDbHelper dbHelper = OneSignalDbHelper.getInstance(context);
       SQLiteDatabase readableDb = dbHelper.getReadableDatabase();
 
@@ -1393,6 +1402,7 @@ public class OneSignal {
          return true;
       }
 
+      NotificationIdFilter.recordFalsePositive();
       return false;
    }
 
@@ -1401,41 +1411,11 @@ public class OneSignal {
       handler.post(action);
    }
    
-   static boolean notValidOrDuplicated(Context context, JSONObject jsonPayload) {
-      String id = getNotificationIdFromGCMJsonPayload(jsonPayload);
+   static boolean notValidOrDuplicated(Context context, NotificationMessage message) {
+      String id = message.getNotificationId();
       return id == null || OneSignal.isDuplicateNotification(id, context);
    }
 
-   static String getNotificationIdFromGCMBundle(Bundle bundle) {
-      if (bundle.isEmpty())
-         return null;
-
-      try {
-         if (bundle.containsKey("custom")) {
-            JSONObject customJSON = new JSONObject(bundle.getString("custom"));
-
-            if (customJSON.has("i"))
-               return customJSON.optString("i", null);
-            else
-               Log(LOG_LEVEL.DEBUG, "Not a OneSignal formatted GCM message. No 'i' field in custom.");
-         }
-         else
-            Log(LOG_LEVEL.DEBUG, "Not a OneSignal formatted GCM message. No 'custom' field in the bundle.");
-      } catch (Throwable t) {
-         Log(LOG_LEVEL.DEBUG, "Could not parse bundle, probably not a OneSignal notification.", t);
-      }
-
-      return null;
-   }
-
-   static String getNotificationIdFromGCMJsonPayload(JSONObject jsonPayload) {
-      try {
-         JSONObject customJSON = new JSONObject(jsonPayload.optString("custom"));
-         return customJSON.optString("i", null);
-      } catch(Throwable t) {}
-      return null;
-   }
-
    static boolean isAppActive() {
       return initDone && isForeground();
    }
@@ -44,7 +44,8 @@ class OneSignalDbContract {
       public static final String COLUMN_NAME_MESSAGE = "message";
       public static final String COLUMN_NAME_CREATED_TIME = "created_time";
 
-      // JSON formatted string of the full GCM bundle
+      // JSON formatted string of the full GCM bundle.
+      //   Only set on rows from before database version 6, now stored in NotificationPayloadTable.
       public static final String COLUMN_NAME_FULL_DATA = "full_data";
 
 
@@ -52,5 +53,51 @@ class OneSignalDbContract {
       public static final String INDEX_CREATE_ANDROID_NOTIFICATION_ID = "CREATE INDEX notification_android_notification_id_idx ON notification(android_notification_id); ";
       public static final String INDEX_CREATE_GROUP_ID = "CREATE INDEX notification_group_id_idx ON notification(group_id); ";
       public static final String INDEX_CREATE_CREATED_TIME = "CREATE INDEX notification_created_time_idx ON notification(created_time); ";
+      // Covers the group lookups for summary notifications, trailing android_notification_id makes them index only.
+      public static final String INDEX_CREATE_GROUP_UNREAD = "CREATE INDEX notification_group_unread_idx ON notification(group_id, dismissed, opened, is_summary, android_notification_id); ";
+      // Covers the badge count and the restore query's created_time range.
+      public static final String INDEX_CREATE_UNREAD_CREATED_TIME = "CREATE INDEX notification_unread_created_time_idx ON notification(dismissed, opened, is_summary, created_time); ";
+   }
+
+   static abstract class NotificationPayloadTable implements BaseColumns {
+      public static final String TABLE_NAME = "notification_payload";
+      // _ID is the _ID of the row in NotificationTable
+      // Deflated UTF-8 JSON of the full GCM bundle
+      public static final String COLUMN_NAME_DATA = "data";
+   }
+
+   static abstract class OutboundRequestTable implements BaseColumns {
+      public static final String TABLE_NAME = "outbound_request";
+      public static final String COLUMN_NAME_METHOD = "method";
+      public static final String COLUMN_NAME_URL = "url";
+      // JSON formatted string of the request body
+      public static final String COLUMN_NAME_BODY = "body";
+      public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+      public static final String COLUMN_NAME_CREATED_TIME = "created_time";
+   }
+
+   static abstract class UserStateTable implements BaseColumns {
+      public static final String TABLE_NAME = "user_state";
+      // persistKey of the UserState, CURRENT_STATE or TOSYNC_STATE
+      public static final String COLUMN_NAME_STATE = "state";
+      // section/key or section/key/childKey, see UserStateStore
+      public static final String COLUMN_NAME_PATH = "path";
+      // JSON formatted value wrapped in a single element array so its type is kept
+      public static final String COLUMN_NAME_VALUE = "value";
+
+      public static final String INDEX_CREATE_STATE_PATH = "CREATE UNIQUE INDEX user_state_state_path_idx ON user_state(state, path); ";
+   }
+
+   static abstract class NotificationGroupTable implements BaseColumns {
+      public static final String TABLE_NAME = "notification_group";
+      public static final String COLUMN_NAME_GROUP_ID = "group_id";
+      // android_notification_id of the group's summary, NULL if none is showing
+      public static final String COLUMN_NAME_SUMMARY_ID = "summary_id";
+      // Number of un-dismissed, un-opened children
+      public static final String COLUMN_NAME_COUNT = "count";
+      // JSON array of the newest children for the summary's inbox lines, see NotificationGroupIndex
+      public static final String COLUMN_NAME_LINES = "lines";
+
+      public static final String INDEX_CREATE_GROUP_ID = "CREATE UNIQUE INDEX notification_group_group_id_idx ON notification_group(group_id); ";
    }
 }
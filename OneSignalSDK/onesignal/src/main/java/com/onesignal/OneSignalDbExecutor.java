@@ -0,0 +1,121 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Every write to OneSignal.db goes through write() so the database only ever has one writer.
+//   With write-ahead logging (see OneSignalDbHelper) readers use getReadableDatabase() directly and are not blocked
+//   by a write in progress, so the only waiting left is writers queueing here, which is measured.
+// Tasks must be short and must not take other locks, callers may already hold theirs (queueLock, storeLock) when calling in.
+class OneSignalDbExecutor {
+
+   interface WriteTask<T> {
+      T run(SQLiteDatabase writableDb) throws Exception;
+   }
+
+   // Fair so a burst of writes from one thread can't starve the others.
+   static final ReentrantLock writeLock = new ReentrantLock(true);
+
+   // Updated only while holding writeLock.
+   private static long writeCount;
+   private static long contendedWriteCount;
+   private static long totalWaitTime;
+   private static long maxWaitTime;
+
+   // Runs task in a transaction as the single writer and returns its result.
+   //   Returns null and rolls back if the task throws, logging errorMessage.
+   static <T> T write(Context context, String errorMessage, WriteTask<T> task) {
+      boolean committed = false;
+      long waitStart = System.nanoTime();
+      boolean contended = writeLock.isLocked() && !writeLock.isHeldByCurrentThread();
+      writeLock.lock();
+      try {
+         long waitTime = (System.nanoTime() - waitStart) / 1000000L;
+         writeCount++;
+         if (contended)
+            contendedWriteCount++;
+         totalWaitTime += waitTime;
+         if (waitTime > maxWaitTime)
+            maxWaitTime = waitTime;
+
+         if (contended)
+            OneSignal.Log(OneSignal.LOG_LEVEL.VERBOSE, "Waited " + waitTime + "ms for the database writer.");
+
+         SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(context).getWritableDatabase();
+         T result;
+         beginTransaction(writableDb);
+         try {
+            result = task.run(writableDb);
+            writableDb.setTransactionSuccessful();
+         } finally {
+            writableDb.endTransaction();
+         }
+         committed = true;
+         return result;
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, errorMessage, t);
+         return null;
+      } finally {
+         // Undo in memory group changes the rollback took out of the table.
+         if (writeLock.getHoldCount() == 1)
+            NotificationGroupIndex.onWriteFinished(committed);
+         writeLock.unlock();
+      }
+   }
+
+   // An exclusive transaction would also lock out readers when write-ahead logging isn't available.
+   private static void beginTransaction(SQLiteDatabase writableDb) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+         writableDb.beginTransactionNonExclusive();
+      else
+         writableDb.beginTransaction();
+   }
+
+   static long getWriteCount() {
+      return writeCount;
+   }
+
+   static long getContendedWriteCount() {
+      return contendedWriteCount;
+   }
+
+   // Milliseconds writers spent waiting for another write to finish.
+   static long getTotalWaitTime() {
+      return totalWaitTime;
+   }
+
+   static long getMaxWaitTime() {
+      return maxWaitTime;
+   }
+}
@@ -30,11 +30,15 @@ package com.onesignal;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.onesignal.OneSignalDbContract.NotificationGroupTable;
+import com.onesignal.OneSignalDbContract.NotificationPayloadTable;
 import com.onesignal.OneSignalDbContract.NotificationTable;
+import com.onesignal.OneSignalDbContract.OutboundRequestTable;
+import com.onesignal.OneSignalDbContract.UserStateTable;
 
 public class OneSignalDbHelper extends SQLiteOpenHelper {
-   public static final int DATABASE_VERSION = 1;
    public static final String DATABASE_NAME = "OneSignal.db";
 
    private static final String TEXT_TYPE = " TEXT";
@@ -56,17 +60,80 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
            NotificationTable.COLUMN_NAME_CREATED_TIME + " TIMESTAMP DEFAULT (strftime('%s', 'now'))" +
            ");";
 
-   private static final String SQL_INDEX_ENTRIES =
-       NotificationTable.INDEX_CREATE_NOTIFICATION_ID +
-           NotificationTable.INDEX_CREATE_ANDROID_NOTIFICATION_ID +
-           NotificationTable.INDEX_CREATE_GROUP_ID +
-           NotificationTable.INDEX_CREATE_CREATED_TIME;
+   private static final String SQL_CREATE_OUTBOUND_REQUEST_ENTRIES =
+       "CREATE TABLE " + OutboundRequestTable.TABLE_NAME + " (" +
+           OutboundRequestTable._ID + " INTEGER PRIMARY KEY," +
+           OutboundRequestTable.COLUMN_NAME_METHOD + TEXT_TYPE + COMMA_SEP +
+           OutboundRequestTable.COLUMN_NAME_URL + TEXT_TYPE + COMMA_SEP +
+           OutboundRequestTable.COLUMN_NAME_BODY + TEXT_TYPE + COMMA_SEP +
+           OutboundRequestTable.COLUMN_NAME_ATTEMPTS + INT_TYPE + " DEFAULT 0" + COMMA_SEP +
+           OutboundRequestTable.COLUMN_NAME_CREATED_TIME + " TIMESTAMP DEFAULT (strftime('%s', 'now'))" +
+           ");";
+
+   private static final String SQL_CREATE_USER_STATE_ENTRIES =
+       "CREATE TABLE " + UserStateTable.TABLE_NAME + " (" +
+           UserStateTable._ID + " INTEGER PRIMARY KEY," +
+           UserStateTable.COLUMN_NAME_STATE + TEXT_TYPE + COMMA_SEP +
+           UserStateTable.COLUMN_NAME_PATH + TEXT_TYPE + COMMA_SEP +
+           UserStateTable.COLUMN_NAME_VALUE + TEXT_TYPE +
+           ");";
+
+   private static final String SQL_CREATE_NOTIFICATION_PAYLOAD_ENTRIES =
+       "CREATE TABLE " + NotificationPayloadTable.TABLE_NAME + " (" +
+           NotificationPayloadTable._ID + " INTEGER PRIMARY KEY," +
+           NotificationPayloadTable.COLUMN_NAME_DATA + " BLOB" +
+           ");";
+
+   private static final String SQL_CREATE_NOTIFICATION_GROUP_ENTRIES =
+       "CREATE TABLE " + NotificationGroupTable.TABLE_NAME + " (" +
+           NotificationGroupTable._ID + " INTEGER PRIMARY KEY," +
+           NotificationGroupTable.COLUMN_NAME_GROUP_ID + TEXT_TYPE + COMMA_SEP +
+           NotificationGroupTable.COLUMN_NAME_SUMMARY_ID + INT_TYPE + COMMA_SEP +
+           NotificationGroupTable.COLUMN_NAME_COUNT + INT_TYPE + " DEFAULT 0" + COMMA_SEP +
+           NotificationGroupTable.COLUMN_NAME_LINES + TEXT_TYPE +
+           ");";
+
+   // Schema of the first release, SQLiteDatabase.execSQL only runs one statement at a time.
+   private static final String[] SQL_CREATE_VERSION_1 = {
+       SQL_CREATE_ENTRIES,
+       NotificationTable.INDEX_CREATE_NOTIFICATION_ID,
+       NotificationTable.INDEX_CREATE_ANDROID_NOTIFICATION_ID,
+       NotificationTable.INDEX_CREATE_GROUP_ID,
+       NotificationTable.INDEX_CREATE_CREATED_TIME
+   };
 
+   // MIGRATIONS[i] upgrades the schema from version i + 1 to i + 2.
+   //   To change the schema append a migration, DATABASE_VERSION follows. Never edit a released one.
+   private static final String[][] MIGRATIONS = {
+       // 2
+       { SQL_CREATE_OUTBOUND_REQUEST_ENTRIES },
+       // 3
+       { SQL_CREATE_USER_STATE_ENTRIES, UserStateTable.INDEX_CREATE_STATE_PATH },
+       // 4
+       { "CREATE INDEX notification_unread_idx ON notification(dismissed, opened, is_summary); " },
+       // 5 - Version 1 created only its first index, add the others the access paths below don't replace.
+       //   group_id and the (dismissed, opened, is_summary) index are superseded by the composite indexes.
+       { "CREATE INDEX IF NOT EXISTS notification_android_notification_id_idx ON notification(android_notification_id); ",
+         "CREATE INDEX IF NOT EXISTS notification_created_time_idx ON notification(created_time); ",
+         "DROP INDEX IF EXISTS notification_group_id_idx; ",
+         "DROP INDEX IF EXISTS notification_unread_idx; ",
+         NotificationTable.INDEX_CREATE_GROUP_UNREAD,
+         NotificationTable.INDEX_CREATE_UNREAD_CREATED_TIME },
+       // 6 - Also moves existing full_data, see runCodeMigration.
+       { SQL_CREATE_NOTIFICATION_PAYLOAD_ENTRIES },
+       // 7 - Starts empty, NotificationGroupIndex fills it in from the notification table as groups are used.
+       { SQL_CREATE_NOTIFICATION_GROUP_ENTRIES, NotificationGroupTable.INDEX_CREATE_GROUP_ID }
+   };
+
+   public static final int DATABASE_VERSION = MIGRATIONS.length + 1;
 
    private static OneSignalDbHelper sInstance;
 
    private OneSignalDbHelper(Context context) {
       super(context, DATABASE_NAME, null, DATABASE_VERSION);
+      // Lets reads run while OneSignalDbExecutor is writing instead of waiting on the file lock.
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+         setWriteAheadLoggingEnabled(true);
    }
 
    public static synchronized OneSignalDbHelper getInstance(Context context) {
@@ -78,12 +145,39 @@ public class OneSignalDbHelper extends SQLiteOpenHelper {
 
    @Override
    public void onCreate(SQLiteDatabase db) {
-      db.execSQL(SQL_CREATE_ENTRIES);
-      db.execSQL(SQL_INDEX_ENTRIES);
+      for (String statement : SQL_CREATE_VERSION_1)
+         db.execSQL(statement);
+      runMigrations(db, 1, DATABASE_VERSION);
+   }
+
+   @Override
+   public void onOpen(SQLiteDatabase db) {
+      super.onOpen(db);
+      // setWriteAheadLoggingEnabled was only added in Jelly Bean.
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+         db.enableWriteAheadLogging();
    }
 
    @Override
-   public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-      // Only 1 db version so far.
+   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      runMigrations(db, oldVersion, newVersion);
+   }
+
+   // Called inside the open helper's transaction, a failure leaves the database at oldVersion.
+   private static void runMigrations(SQLiteDatabase db, int oldVersion, int newVersion) {
+      for (int version = oldVersion; version < newVersion; version++) {
+         for (String statement : MIGRATIONS[version - 1])
+            db.execSQL(statement);
+         runCodeMigration(db, version + 1);
+      }
+   }
+
+   // Parts of a migration that can't be done in SQL, run after its statements.
+   private static void runCodeMigration(SQLiteDatabase db, int toVersion) {
+      switch (toVersion) {
+         case 6:
+            NotificationPayloadStore.moveFullDataToSideTable(db);
+            break;
+      }
    }
-}
\ No newline at end of file
+}
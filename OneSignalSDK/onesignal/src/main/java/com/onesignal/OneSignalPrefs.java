@@ -0,0 +1,229 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Write-behind layer over the OneSignal SharedPreferences file.
+//   Saves are held in memory for WRITE_DELAY and then written together with a single apply(), so bursts
+//   such as the ones on app focus and lost focus rewrite the file once instead of once per value.
+//   The file is read into memory once on the first lookup and every save updates that copy, so hot
+//   paths like notification display and open handling don't go back to SharedPreferences after that.
+// flush() writes synchronously and must be called at points where the process may be killed right after.
+class OneSignalPrefs {
+
+   private static final long WRITE_DELAY = 200;
+
+   // Placeholder in pendingValues for a removed key.
+   private static final Object REMOVED = new Object();
+
+   private static final Object prefsLock = new Object();
+   private static Map<String, Object> pendingValues = new HashMap<>();
+   // Snapshot of the file plus every save since, only complete once snapshotLoaded is set.
+   private static Map<String, Object> cachedValues = new HashMap<>();
+   private static boolean snapshotLoaded;
+   private static int diskReadCount;
+   private static Context prefsContext;
+
+   private static WritePrefHandlerThread writePrefHandlerThread;
+
+   private static int writeCount;
+   private static int coalescedWriteCount;
+   private static int flushCount;
+   private static long lastFlushLatency;
+
+   // null removes the key, the same as SharedPreferences.Editor.putString.
+   static void saveString(Context context, String key, String value) {
+      save(context, key, value == null ? REMOVED : value);
+   }
+
+   static void saveBoolean(Context context, String key, boolean value) {
+      save(context, key, value);
+   }
+
+   static void saveLong(Context context, String key, long value) {
+      save(context, key, value);
+   }
+
+   static void remove(Context context, String key) {
+      save(context, key, REMOVED);
+   }
+
+   static String getString(Context context, String key, String defValue) {
+      Object value = getValue(context, key);
+      return value instanceof String ? (String)value : defValue;
+   }
+
+   static boolean getBoolean(Context context, String key, boolean defValue) {
+      Object value = getValue(context, key);
+      return value instanceof Boolean ? (Boolean)value : defValue;
+   }
+
+   static long getLong(Context context, String key, long defValue) {
+      Object value = getValue(context, key);
+      return value instanceof Long ? (Long)value : defValue;
+   }
+
+   private static Object getValue(Context context, String key) {
+      synchronized (prefsLock) {
+         if (!snapshotLoaded)
+            loadSnapshot(context);
+
+         Object value = cachedValues.get(key);
+         return value == REMOVED ? null : value;
+      }
+   }
+
+   private static void loadSnapshot(Context context) {
+      diskReadCount++;
+      // Saves made before the first read are newer than what is on disk.
+      for (Map.Entry<String, ?> entry : OneSignal.getGcmPreferences(context).getAll().entrySet()) {
+         if (!cachedValues.containsKey(entry.getKey()))
+            cachedValues.put(entry.getKey(), entry.getValue());
+      }
+      snapshotLoaded = true;
+   }
+
+   private static void save(Context context, String key, Object value) {
+      synchronized (prefsLock) {
+         if (prefsContext == null)
+            prefsContext = context.getApplicationContext();
+
+         writeCount++;
+         cachedValues.put(key, value);
+
+         // Already waiting on a write, this value goes out with it.
+         if (!pendingValues.isEmpty()) {
+            coalescedWriteCount++;
+            pendingValues.put(key, value);
+            return;
+         }
+
+         pendingValues.put(key, value);
+
+         if (writePrefHandlerThread == null)
+            writePrefHandlerThread = new WritePrefHandlerThread();
+         writePrefHandlerThread.scheduleFlush();
+      }
+   }
+
+   // Writes anything pending now and waits for it to reach disk.
+   static void flush() {
+      synchronized (prefsLock) {
+         if (writePrefHandlerThread != null)
+            writePrefHandlerThread.cancelFlush();
+         writePending(true);
+      }
+   }
+
+   private static void writePending(boolean sync) {
+      synchronized (prefsLock) {
+         if (pendingValues.isEmpty() || prefsContext == null)
+            return;
+
+         long startTime = System.nanoTime();
+         SharedPreferences.Editor editor = OneSignal.getGcmPreferences(prefsContext).edit();
+         for (Map.Entry<String, Object> entry : pendingValues.entrySet()) {
+            Object value = entry.getValue();
+            if (value == REMOVED)
+               editor.remove(entry.getKey());
+            else if (value instanceof String)
+               editor.putString(entry.getKey(), (String)value);
+            else if (value instanceof Boolean)
+               editor.putBoolean(entry.getKey(), (Boolean)value);
+            else if (value instanceof Long)
+               editor.putLong(entry.getKey(), (Long)value);
+         }
+
+         int valueCount = pendingValues.size();
+         pendingValues.clear();
+
+         if (sync)
+            editor.commit();
+         else
+            editor.apply();
+
+         flushCount++;
+         lastFlushLatency = (System.nanoTime() - startTime) / 1000000;
+         OneSignal.Log(OneSignal.LOG_LEVEL.VERBOSE, "Wrote " + valueCount + " preferences in " + lastFlushLatency + "ms. "
+                                                    + coalescedWriteCount + " of " + writeCount + " writes coalesced.");
+      }
+   }
+
+   static int getDiskReadCount() {
+      return diskReadCount;
+   }
+
+   static int getWriteCount() {
+      return writeCount;
+   }
+
+   static int getCoalescedWriteCount() {
+      return coalescedWriteCount;
+   }
+
+   static int getFlushCount() {
+      return flushCount;
+   }
+
+   static long getLastFlushLatency() {
+      return lastFlushLatency;
+   }
+
+   static class WritePrefHandlerThread extends HandlerThread {
+      private Handler mHandler;
+
+      private final Runnable flushRunnable = new Runnable() {
+         @Override
+         public void run() {
+            writePending(false);
+         }
+      };
+
+      WritePrefHandlerThread() {
+         super("OSH_WritePrefs");
+         start();
+         mHandler = new Handler(getLooper());
+      }
+
+      void scheduleFlush() {
+         mHandler.postDelayed(flushRunnable, WRITE_DELAY);
+      }
+
+      void cancelFlush() {
+         mHandler.removeCallbacks(flushRunnable);
+      }
+   }
+}
@@ -27,71 +27,432 @@
 
 package com.onesignal;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+
 class OneSignalRestClient {
    static class ResponseHandler {
       void onSuccess(String response) {}
       void onFailure(int statusCode, String response, Throwable throwable) {}
    }
 
-   private static final String BASE_URL = "https://onesignal.com/api/v1/";
+   // For callers that only need the parsed response.
+   //   makeRequest streams the body straight into a JSONObject without building the String first.
+   static class JSONResponseHandler extends ResponseHandler {
+      void onSuccess(JSONObject response) {}
+
+      // A 200 whose body could not be read as JSON. The server already accepted the request so this must never
+      //   reach onFailure, where it would be retried. Handled as a success with no response data by default.
+      void onParseFailure(String response, Throwable throwable) {
+         onSuccess(new JSONObject());
+      }
+
+      @Override
+      final void onSuccess(String response) {
+         JSONObject jsonResponse;
+         try {
+            jsonResponse = new JSONObject(response);
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Could not parse JSON response: " + response, t);
+            onParseFailure(response, t);
+            return;
+         }
+         onSuccess(jsonResponse);
+      }
+   }
+
+   // Package-private so tests can point requests at a local server.
+   static String BASE_URL = "https://onesignal.com/api/v1/";
    private static final int TIMEOUT = 120000;
+   // Async calls share a few workers, a stalled one must not hold up the calls queued behind it for long.
+   private static final int ASYNC_TIMEOUT = 30000;
 
-   static void put(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
+   // Reuse sockets between requests through HttpURLConnection's keep-alive pool.
+   static boolean keepAliveEnabled = true;
+
+   // Opt-in through OneSignal.Builder.enableRequestCompression.
+   //   Saved so processes started without init (SyncService, GCM and boot receivers) compress as well.
+   //   null until set by init or read back from prefs.
+   //   Bodies smaller than this are sent as is since gzip's header and trailer would eat most of the saving.
+   static Boolean compressRequests;
+   static final int MIN_COMPRESS_SIZE = 1024;
+   private static final String PREF_COMPRESS_REQUESTS = "GT_COMPRESS_REQUESTS";
+
+   static void setCompressRequests(Context context, boolean enable) {
+      compressRequests = enable;
+      OneSignalPrefs.saveBoolean(context, PREF_COMPRESS_REQUESTS, enable);
+   }
+
+   static boolean shouldCompressRequests() {
+      Boolean compress = compressRequests;
+      if (compress == null) {
+         // Not cached until there is a context to read the saved setting from.
+         if (OneSignal.appContext == null)
+            return false;
+         compress = OneSignalPrefs.getBoolean(OneSignal.appContext, PREF_COMPRESS_REQUESTS, false);
+         compressRequests = compress;
+      }
+      return compress;
+   }
+
+   // All async REST calls share this executor instead of starting a new Thread per call.
+   //   Package-private so it can be swapped out.
+   static RequestExecutor requestExecutor = new RequestExecutor(RequestExecutor.WORKER_COUNT, RequestExecutor.MAX_QUEUED_REQUESTS);
+
+   static class RequestExecutor {
+      static final int WORKER_COUNT = 4;
+      static final int MAX_QUEUED_REQUESTS = 50;
+
+      private final ThreadPoolExecutor executor;
+      private final AtomicInteger inFlightCount = new AtomicInteger();
+      private final AtomicInteger rejectedCount = new AtomicInteger();
+
+      RequestExecutor(int workerCount, int maxQueuedRequests) {
+         executor = new ThreadPoolExecutor(workerCount, workerCount,
+                                           0L, TimeUnit.MILLISECONDS,
+                                           new ArrayBlockingQueue<Runnable>(maxQueuedRequests),
+                                           new ThreadFactory() {
+                                              private final AtomicInteger threadNumber = new AtomicInteger(1);
+                                              @Override
+                                              public Thread newThread(Runnable runnable) {
+                                                 return new Thread(runnable, "OneSignalRestClient-" + threadNumber.getAndIncrement());
+                                              }
+                                           });
+      }
+
+      void execute(final Runnable request) {
+         Runnable countedRequest = new Runnable() {
+            @Override
+            public void run() {
+               inFlightCount.incrementAndGet();
+               try {
+                  request.run();
+               } finally {
+                  inFlightCount.decrementAndGet();
+               }
+            }
+         };
+
+         try {
+            executor.execute(countedRequest);
+         } catch (RejectedExecutionException e) {
+            // Queue is full, push back on the caller by running the request on its thread.
+            //    The main thread can't block on the network so it falls back to a one off Thread.
+            rejectedCount.incrementAndGet();
+            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "OneSignalRestClient queue is full, " + getQueueDepth() + " requests waiting.");
+            if (Looper.getMainLooper().getThread() == Thread.currentThread())
+               new Thread(countedRequest).start();
+            else
+               countedRequest.run();
+         }
+      }
+
+      int getQueueDepth() {
+         return executor.getQueue().size();
+      }
+
+      int getInFlightCount() {
+         return inFlightCount.get();
+      }
+
+      int getRejectedCount() {
+         return rejectedCount.get();
+      }
+   }
 
-      new Thread(new Runnable() {
+   static void put(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
+      requestExecutor.execute(new Runnable() {
          public void run() {
-            makeRequest(url, "PUT", jsonBody, responseHandler);
+            makeRequest(url, "PUT", jsonBody, responseHandler, ASYNC_TIMEOUT);
          }
-      }).start();
+      });
    }
 
    static void post(final String url, final JSONObject jsonBody, final ResponseHandler responseHandler) {
-      new Thread(new Runnable() {
+      requestExecutor.execute(new Runnable() {
          public void run() {
-            makeRequest(url, "POST", jsonBody, responseHandler);
+            makeRequest(url, "POST", jsonBody, responseHandler, ASYNC_TIMEOUT);
          }
-      }).start();
+      });
    }
 
    static void get(final String url, final ResponseHandler responseHandler) {
-      new Thread(new Runnable() {
+      requestExecutor.execute(new Runnable() {
          public void run() {
-            makeRequest(url, null, null, responseHandler);
+            makeRequest(url, null, null, responseHandler, ASYNC_TIMEOUT);
          }
-      }).start();
+      });
    }
 
    static void getSync(final String url, final ResponseHandler responseHandler) {
-      makeRequest(url, null, null, responseHandler);
+      makeRequest(url, null, null, responseHandler, TIMEOUT);
    }
 
    static void putSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "PUT", jsonBody, responseHandler);
+      makeRequest(url, "PUT", jsonBody, responseHandler, TIMEOUT);
    }
 
    static void postSync(String url, JSONObject jsonBody, ResponseHandler responseHandler) {
-      makeRequest(url, "POST", jsonBody, responseHandler);
+      makeRequest(url, "POST", jsonBody, responseHandler, TIMEOUT);
+   }
+
+   // Byte counts for one endpoint, "raw" being the JSON size and "wire" what was actually transferred.
+   static class EndpointByteCounts {
+      long rawBytesSent, wireBytesSent;
+      long rawBytesReceived, wireBytesReceived;
+      int requestCount;
+
+      EndpointByteCounts copy() {
+         EndpointByteCounts counts = new EndpointByteCounts();
+         counts.rawBytesSent = rawBytesSent;
+         counts.wireBytesSent = wireBytesSent;
+         counts.rawBytesReceived = rawBytesReceived;
+         counts.wireBytesReceived = wireBytesReceived;
+         counts.requestCount = requestCount;
+         return counts;
+      }
+   }
+
+   private static final Map<String, EndpointByteCounts> endpointByteCounts = new HashMap<>();
+   private static final Pattern ID_PATH_SEGMENT = Pattern.compile("[0-9a-fA-F-]{16,}");
+
+   // Collapses ids so all players/<id> requests count towards "players/:id".
+   static String endpointFromUrl(String url) {
+      int queryStart = url.indexOf('?');
+      if (queryStart != -1)
+         url = url.substring(0, queryStart);
+
+      String[] segments = url.split("/");
+      StringBuilder endpoint = new StringBuilder();
+      for (int i = 0; i < segments.length; i++) {
+         if (i > 0)
+            endpoint.append('/');
+         endpoint.append(ID_PATH_SEGMENT.matcher(segments[i]).matches() ? ":id" : segments[i]);
+      }
+      return endpoint.toString();
+   }
+
+   private static void recordBytes(String url, long rawSent, long wireSent, long rawReceived, long wireReceived) {
+      String endpoint = endpointFromUrl(url);
+      synchronized (endpointByteCounts) {
+         EndpointByteCounts counts = endpointByteCounts.get(endpoint);
+         if (counts == null) {
+            counts = new EndpointByteCounts();
+            endpointByteCounts.put(endpoint, counts);
+         }
+         counts.rawBytesSent += rawSent;
+         counts.wireBytesSent += wireSent;
+         counts.rawBytesReceived += rawReceived;
+         counts.wireBytesReceived += wireReceived;
+         counts.requestCount++;
+      }
+   }
+
+   static Map<String, EndpointByteCounts> getEndpointByteCounts() {
+      Map<String, EndpointByteCounts> snapshot = new HashMap<>();
+      synchronized (endpointByteCounts) {
+         for (Map.Entry<String, EndpointByteCounts> entry : endpointByteCounts.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().copy());
+      }
+      return snapshot;
+   }
+
+   static void resetEndpointByteCounts() {
+      synchronized (endpointByteCounts) {
+         endpointByteCounts.clear();
+      }
+   }
+
+   private static byte[] gzip(byte[] bytes) throws IOException {
+      ByteArrayOutputStream byteStream = new ByteArrayOutputStream(bytes.length / 2);
+      GZIPOutputStream gzipStream = new GZIPOutputStream(byteStream);
+      gzipStream.write(bytes);
+      gzipStream.close();
+      return byteStream.toByteArray();
+   }
+
+   // Counts the bytes read off the socket, before any gzip decoding.
+   private static class CountingInputStream extends FilterInputStream {
+      long count;
+
+      CountingInputStream(InputStream in) {
+         super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+         int b = super.read();
+         if (b != -1)
+            count++;
+         return b;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+         int read = super.read(buffer, offset, length);
+         if (read > 0)
+            count += read;
+         return read;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         long skipped = super.skip(n);
+         count += skipped;
+         return skipped;
+      }
+   }
+
+   private static final int READ_BUFFER_SIZE = 8192;
+
+   // Each REST thread keeps its own read buffer instead of allocating one per response.
+   private static final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>() {
+      @Override
+      protected byte[] initialValue() {
+         return new byte[READ_BUFFER_SIZE];
+      }
+   };
+
+   // Reads the full body and closes the stream, required for the socket to be kept alive.
+   private static String readResponseBody(InputStream inputStream, int contentLength) throws IOException {
+      byte[] buffer = readBuffer.get();
+      ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength > 0 ? contentLength : READ_BUFFER_SIZE);
+      try {
+         int read;
+         while ((read = inputStream.read(buffer)) != -1)
+            body.write(buffer, 0, read);
+      } finally {
+         inputStream.close();
+      }
+      return body.toString("UTF-8");
+   }
+
+   // Reads any bytes a streaming parse left behind so the socket can be kept alive.
+   private static void drainAndClose(InputStream inputStream) throws IOException {
+      byte[] buffer = readBuffer.get();
+      try {
+         while (inputStream.read(buffer) != -1);
+      } finally {
+         inputStream.close();
+      }
+   }
+
+   private static JSONObject readResponseJSON(InputStream inputStream, int contentLength) throws IOException, JSONException {
+      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+         return new JSONObject(readResponseBody(inputStream, contentLength));
+
+      try {
+         return StreamingJSONParser.parseObject(inputStream);
+      } finally {
+         drainAndClose(inputStream);
+      }
+   }
+
+   // Builds the JSONObject directly from the stream with android.util.JsonReader, added in API 11.
+   //   In its own class so older devices never load JsonReader.
+   private static class StreamingJSONParser {
+      static JSONObject parseObject(InputStream inputStream) throws IOException, JSONException {
+         android.util.JsonReader reader = new android.util.JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+         // Match org.json's leniency, it accepts things like single quoted strings.
+         reader.setLenient(true);
+         return readObject(reader);
+      }
+
+      private static JSONObject readObject(android.util.JsonReader reader) throws IOException, JSONException {
+         JSONObject jsonObject = new JSONObject();
+         reader.beginObject();
+         while (reader.hasNext())
+            jsonObject.put(reader.nextName(), readValue(reader));
+         reader.endObject();
+         return jsonObject;
+      }
+
+      private static JSONArray readArray(android.util.JsonReader reader) throws IOException, JSONException {
+         JSONArray jsonArray = new JSONArray();
+         reader.beginArray();
+         while (reader.hasNext())
+            jsonArray.put(readValue(reader));
+         reader.endArray();
+         return jsonArray;
+      }
+
+      private static Object readValue(android.util.JsonReader reader) throws IOException, JSONException {
+         switch (reader.peek()) {
+            case BEGIN_OBJECT:
+               return readObject(reader);
+            case BEGIN_ARRAY:
+               return readArray(reader);
+            case BOOLEAN:
+               return reader.nextBoolean();
+            case NULL:
+               reader.nextNull();
+               return JSONObject.NULL;
+            case NUMBER:
+               return readNumber(reader.nextString());
+            default:
+               return reader.nextString();
+         }
+      }
+
+      // Same number types JSONTokener would give for the value.
+      private static Object readNumber(String number) {
+         if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+               long longValue = Long.parseLong(number);
+               if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE)
+                  return (int)longValue;
+               return longValue;
+            } catch (NumberFormatException e) {}
+         }
+
+         try {
+            return Double.valueOf(number);
+         } catch (NumberFormatException e) {
+            return number;
+         }
+      }
    }
 
-   private static void makeRequest(String url, String method, JSONObject jsonBody, ResponseHandler responseHandler) {
+   private static void makeRequest(String url, String method, JSONObject jsonBody, ResponseHandler responseHandler, int timeout) {
       HttpURLConnection con = null;
       int httpResponse = -1;
       String json = null;
+      boolean responseConsumed = false;
+      long rawBytesSent = 0, wireBytesSent = 0, rawBytesReceived = 0, wireBytesReceived = 0;
 
       try {
          OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, BASE_URL + url);
          con = (HttpURLConnection)new URL(BASE_URL + url).openConnection();
          con.setUseCaches(false);
-         con.setConnectTimeout(TIMEOUT);
-         con.setReadTimeout(TIMEOUT);
+         con.setConnectTimeout(timeout);
+         con.setReadTimeout(timeout);
+         // Setting this ourselves turns off HttpURLConnection's transparent gzip so we can count wire bytes.
+         con.setRequestProperty("Accept-Encoding", "gzip");
 
          if (jsonBody != null)
             con.setDoInput(true);
@@ -107,37 +468,70 @@ class OneSignalRestClient {
             OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, method + " SEND JSON: " + strJsonBody);
 
             byte[] sendBytes = strJsonBody.getBytes("UTF-8");
+            rawBytesSent = sendBytes.length;
+            if (shouldCompressRequests() && sendBytes.length >= MIN_COMPRESS_SIZE) {
+               sendBytes = gzip(sendBytes);
+               con.setRequestProperty("Content-Encoding", "gzip");
+            }
+            wireBytesSent = sendBytes.length;
             con.setFixedLengthStreamingMode(sendBytes.length);
 
             OutputStream outputStream = con.getOutputStream();
             outputStream.write(sendBytes);
+            outputStream.close();
          }
 
          httpResponse = con.getResponseCode();
 
          InputStream inputStream;
-         Scanner scanner;
-         if (httpResponse == HttpURLConnection.HTTP_OK) {
+         if (httpResponse == HttpURLConnection.HTTP_OK)
             inputStream = con.getInputStream();
-            scanner = new Scanner(inputStream, "UTF-8");
-            json = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
-            scanner.close();
-            OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, method + " RECEIVED JSON: " + json);
-
-            if (responseHandler != null)
-               responseHandler.onSuccess(json);
-         }
          else {
             inputStream = con.getErrorStream();
             if (inputStream == null)
                inputStream = con.getInputStream();
+         }
 
-            if (inputStream != null) {
-               scanner = new Scanner(inputStream, "UTF-8");
-               json = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
-               scanner.close();
-               OneSignal.Log(OneSignal.LOG_LEVEL.WARN, method + " RECEIVED JSON: " + json);
+         JSONObject jsonResponse = null;
+         Throwable parseError = null;
+         if (inputStream != null) {
+            CountingInputStream wireStream = new CountingInputStream(inputStream);
+            CountingInputStream rawStream = new CountingInputStream("gzip".equalsIgnoreCase(con.getContentEncoding()) ? new GZIPInputStream(wireStream) : wireStream);
+            // Error bodies are kept as Strings for onFailure.
+            if (httpResponse == HttpURLConnection.HTTP_OK && responseHandler instanceof JSONResponseHandler) {
+               try {
+                  jsonResponse = readResponseJSON(rawStream, con.getContentLength());
+               } catch (Throwable t) {
+                  parseError = t;
+               }
+            }
+            else
+               json = readResponseBody(rawStream, con.getContentLength());
+            responseConsumed = parseError == null;
+            rawBytesReceived = rawStream.count;
+            wireBytesReceived = wireStream.count;
+         }
+
+         if (httpResponse == HttpURLConnection.HTTP_OK) {
+            if (parseError != null) {
+               OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, method + " Could not parse JSON response.", parseError);
+               ((JSONResponseHandler)responseHandler).onParseFailure(null, parseError);
+            }
+            else if (jsonResponse != null) {
+               if (OneSignal.atLogLevel(OneSignal.LOG_LEVEL.DEBUG))
+                  OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, method + " RECEIVED JSON: " + jsonResponse);
+               ((JSONResponseHandler)responseHandler).onSuccess(jsonResponse);
             }
+            else {
+               OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, method + " RECEIVED JSON: " + json);
+
+               if (responseHandler != null)
+                  responseHandler.onSuccess(json);
+            }
+         }
+         else {
+            if (json != null)
+               OneSignal.Log(OneSignal.LOG_LEVEL.WARN, method + " RECEIVED JSON: " + json);
             else
                OneSignal.Log(OneSignal.LOG_LEVEL.WARN, method + " HTTP Code: " + httpResponse + " No response body!");
 
@@ -154,8 +548,14 @@ class OneSignalRestClient {
             responseHandler.onFailure(httpResponse, null, t);
       }
       finally {
-         if (con != null)
-            con.disconnect();
+         recordBytes(url, rawBytesSent, wireBytesSent, rawBytesReceived, wireBytesReceived);
+
+         if (con != null) {
+            // Leave the socket open for the next request, disconnect() would close it.
+            //    HttpURLConnection only keeps it if the response body was fully read and closed.
+            if (!keepAliveEnabled || !responseConsumed)
+               con.disconnect();
+         }
       }
    }
-}
\ No newline at end of file
+}
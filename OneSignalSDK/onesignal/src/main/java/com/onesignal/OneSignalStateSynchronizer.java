@@ -97,9 +97,8 @@ class OneSignalStateSynchronizer {
                   if (baseOutput != null && baseOutput.has(key))
                      outValue = baseOutput.getJSONObject(key);
                   JSONObject returnedJson = synchronizedGenerateJsonDiff(curValue, (JSONObject) value, outValue, includeFields);
-                  String returnedJsonStr = returnedJson.toString();
-                  if (!returnedJsonStr.equals("{}"))
-                     output.put(key, new JSONObject(returnedJsonStr));
+                  if (returnedJson.length() > 0)
+                     output.put(key, returnedJson);
                }
                else if (value instanceof JSONArray)
                   handleJsonArray(key, (JSONArray) value, cur.getJSONArray(key), output);
@@ -120,7 +119,7 @@ class OneSignalStateSynchronizer {
             }
             else {
                if (value instanceof JSONObject)
-                  output.put(key, new JSONObject(value.toString()));
+                  output.put(key, deepCopy((JSONObject)value));
                else if (value instanceof JSONArray)
                   handleJsonArray(key, (JSONArray) value, null, output);
                else
@@ -140,41 +139,81 @@ class OneSignalStateSynchronizer {
          return;
       }
 
-      String arrayStr = toStringNE(newArray);
+      Set<String> newSet = toStringSet(newArray);
+      Set<String> curSet = curArray == null ? null : toStringSet(curArray);
 
       JSONArray newOutArray = new JSONArray();
       JSONArray remOutArray = new JSONArray();
-      String curArrayStr = curArray == null ? null : toStringNE(curArray);
 
       for (int i = 0; i < newArray.length(); i++) {
          String arrayValue = (String)newArray.get(i);
-         if (curArray == null || !curArrayStr.contains(arrayValue))
+         if (curSet == null || !curSet.contains(arrayValue))
             newOutArray.put(arrayValue);
       }
 
       if (curArray != null) {
          for (int i = 0; i < curArray.length(); i++) {
             String arrayValue = curArray.getString(i);
-            if (!arrayStr.contains(arrayValue))
+            if (!newSet.contains(arrayValue))
                remOutArray.put(arrayValue);
          }
       }
 
-      if (!newOutArray.toString().equals("[]"))
+      if (newOutArray.length() > 0)
          output.put(key + "_a", newOutArray);
-      if (!remOutArray.toString().equals("[]"))
+      if (remOutArray.length() > 0)
          output.put(key + "_d", remOutArray);
    }
 
-   private static String toStringNE(JSONArray jsonArray) {
-      String strArray = "[";
-
+   // Structural copies, walks the tree instead of round-tripping through toString().
+   static JSONObject deepCopy(JSONObject jsonObject) {
+      JSONObject copy = new JSONObject();
+      Iterator<String> keys = jsonObject.keys();
       try {
-         for (int i = 0; i < jsonArray.length(); i++)
-            strArray += "\"" + jsonArray.getString(i) + "\"";
-      } catch (Throwable t) {}
+         while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, deepCopyValue(jsonObject.opt(key)));
+         }
+      } catch (JSONException e) {
+         e.printStackTrace();
+      }
+      return copy;
+   }
+
+   private static JSONArray deepCopy(JSONArray jsonArray) {
+      JSONArray copy = new JSONArray();
+      for (int i = 0; i < jsonArray.length(); i++)
+         copy.put(deepCopyValue(jsonArray.opt(i)));
+      return copy;
+   }
+
+   private static Object deepCopyValue(Object value) {
+      if (value instanceof JSONObject)
+         return deepCopy((JSONObject)value);
+      if (value instanceof JSONArray)
+         return deepCopy((JSONArray)value);
+      return value;
+   }
+
+   private static void putIfHas(JSONObject to, JSONObject from, String key) throws JSONException {
+      Object value = from.opt(key);
+      if (value != null)
+         to.put(key, value);
+   }
 
-      return strArray + "]";
+   static class DirtyKeys {
+      final Set<String> syncKeys, tagKeys;
+
+      DirtyKeys(Set<String> syncKeys, Set<String> tagKeys) {
+         this.syncKeys = syncKeys; this.tagKeys = tagKeys;
+      }
+   }
+
+   private static Set<String> toStringSet(JSONArray jsonArray) {
+      Set<String> set = new HashSet<>(jsonArray.length() * 2);
+      for (int i = 0; i < jsonArray.length(); i++)
+         set.add(jsonArray.optString(i));
+      return set;
    }
 
    private static JSONObject getTagsWithoutDeletedKeys(JSONObject jsonObject) {
@@ -218,8 +257,17 @@ class OneSignalStateSynchronizer {
 
       private String persistKey;
 
+      // Read only outside of UserState, changes go through its methods so copy-on-write can be honored.
       JSONObject dependValues, syncValues;
 
+      // Set while dependValues and syncValues are shared with a clone.
+      //   The first change on either side copies them so a clone is O(1) until then.
+      private boolean copyOnWrite;
+
+      // syncValues keys, and keys inside "tags", changed since the last sync.
+      //   null means unknown, such as after a load, in which case the next diff walks everything.
+      private Set<String> dirtySyncKeys, dirtyTagKeys;
+
       private UserState(String inPersistKey, boolean load) {
          persistKey = inPersistKey;
          if (load)
@@ -230,23 +278,138 @@ class OneSignalStateSynchronizer {
          }
       }
 
+      private void markDirty(String key) {
+         synchronized (syncLock) {
+            if (dirtySyncKeys == null)
+               return;
+            dirtySyncKeys.add(key);
+            // pkgs_a and pkgs_d are folded into pkgs on persist so the base key has to be diffed too.
+            if (key.endsWith("_a") || key.endsWith("_d"))
+               dirtySyncKeys.add(key.substring(0, key.length() - 2));
+         }
+      }
+
+      private void markTagDirty(String tagKey) {
+         synchronized (syncLock) {
+            if (dirtyTagKeys != null)
+               dirtyTagKeys.add(tagKey);
+            if (dirtySyncKeys != null)
+               dirtySyncKeys.add("tags");
+         }
+      }
+
+      private void markAllTagsDirty() {
+         synchronized (syncLock) {
+            dirtyTagKeys = null;
+            if (dirtySyncKeys != null)
+               dirtySyncKeys.add("tags");
+         }
+      }
+
+      private void markAllDirty() {
+         synchronized (syncLock) {
+            dirtySyncKeys = null;
+            dirtyTagKeys = null;
+         }
+      }
+
+      // Hands the dirty keys to a sync and starts tracking from scratch.
+      //   The sync gives them back with restoreDirtyKeys if it does not go through.
+      DirtyKeys takeDirtyKeys() {
+         synchronized (syncLock) {
+            DirtyKeys dirtyKeys = new DirtyKeys(dirtySyncKeys, dirtyTagKeys);
+            dirtySyncKeys = new HashSet<>();
+            dirtyTagKeys = new HashSet<>();
+            return dirtyKeys;
+         }
+      }
+
+      private void restoreDirtyKeys(DirtyKeys dirtyKeys) {
+         synchronized (syncLock) {
+            if (dirtyKeys.syncKeys == null)
+               dirtySyncKeys = null;
+            else if (dirtySyncKeys != null)
+               dirtySyncKeys.addAll(dirtyKeys.syncKeys);
+
+            if (dirtyKeys.tagKeys == null)
+               dirtyTagKeys = null;
+            else if (dirtyTagKeys != null)
+               dirtyTagKeys.addAll(dirtyKeys.tagKeys);
+         }
+      }
+
+      // Applies the fields in changes that differ from this state, marking them dirty.
+      void mergeChanges(JSONObject changes) {
+         synchronized (syncLock) {
+            ensureWritable();
+            JSONObject diff = synchronizedGenerateJsonDiff(syncValues, changes, null, null);
+            Iterator<String> keys = diff.keys();
+            try {
+               while (keys.hasNext()) {
+                  String key = keys.next();
+                  Object value = diff.get(key);
+                  JSONObject curNested = value instanceof JSONObject ? syncValues.optJSONObject(key) : null;
+                  boolean isTags = "tags".equals(key);
+                  if (curNested != null) {
+                     // Nested diffs only hold the changed keys, merge them in.
+                     JSONObject changedNested = (JSONObject)value;
+                     Iterator<String> nestedKeys = changedNested.keys();
+                     while (nestedKeys.hasNext()) {
+                        String nestedKey = nestedKeys.next();
+                        curNested.put(nestedKey, changedNested.get(nestedKey));
+                        if (isTags)
+                           markTagDirty(nestedKey);
+                     }
+                     if (!isTags)
+                        markDirty(key);
+                  }
+                  else {
+                     syncValues.put(key, value);
+                     if (isTags)
+                        markAllTagsDirty();
+                     else
+                        markDirty(key);
+                  }
+               }
+            } catch (JSONException e) {
+               e.printStackTrace();
+            }
+         }
+      }
+
       private UserState deepClone(String persistKey) {
          UserState clonedUserState = new UserState(persistKey, false);
 
-         try {
-            clonedUserState.dependValues = new JSONObject(dependValues.toString());
-            clonedUserState.syncValues = new JSONObject(syncValues.toString());
-         } catch (JSONException e) {
-            e.printStackTrace();
+         synchronized (syncLock) {
+            clonedUserState.dependValues = dependValues;
+            clonedUserState.syncValues = syncValues;
+            clonedUserState.copyOnWrite = copyOnWrite = true;
          }
 
          return clonedUserState;
       }
 
+      // Must be called, under syncLock, before changing dependValues or syncValues.
+      private void ensureWritable() {
+         if (!copyOnWrite)
+            return;
+
+         dependValues = deepCopy(dependValues);
+         syncValues = deepCopy(syncValues);
+         copyOnWrite = false;
+      }
+
       private void addDependFields() {
-         try {
-            syncValues.put("notification_types", getNotificationTypes());
-         } catch (JSONException e) {}
+         synchronized (syncLock) {
+            int notificationTypes = getNotificationTypes();
+            if (syncValues.has("notification_types") && syncValues.optInt("notification_types") == notificationTypes)
+               return;
+
+            try {
+               ensureWritable();
+               syncValues.put("notification_types", notificationTypes);
+            } catch (JSONException e) {}
+         }
       }
 
       private int getNotificationTypes() {
@@ -269,12 +432,13 @@ class OneSignalStateSynchronizer {
          return null;
       }
 
-      private JSONObject generateJsonDiff(UserState newState, boolean isSessionCall) {
+      JSONObject generateJsonDiff(UserState newState, boolean isSessionCall, DirtyKeys dirtyKeys) {
          addDependFields(); newState.addDependFields();
          Set<String> includeFields = getGroupChangeField(syncValues, newState.syncValues);
-         JSONObject sendJson = OneSignalStateSynchronizer.generateJsonDiff(syncValues, newState.syncValues, null, includeFields);
+         JSONObject changedTo = dirtyKeys == null ? newState.syncValues : newState.getDirtyValues(dirtyKeys, includeFields);
+         JSONObject sendJson = OneSignalStateSynchronizer.generateJsonDiff(syncValues, changedTo, null, includeFields);
 
-         if (!isSessionCall && sendJson.toString().equals("{}"))
+         if (!isSessionCall && sendJson.length() == 0)
             return null;
 
          try {
@@ -288,23 +452,87 @@ class OneSignalStateSynchronizer {
          return sendJson;
       }
 
-      void set(String key, Object value) {
+      // Only the dirty fields of syncValues, so a sync diffs O(changed fields) instead of the whole state.
+      //   Falls back to all of syncValues if the dirty keys are unknown.
+      private JSONObject getDirtyValues(DirtyKeys dirtyKeys, Set<String> includeFields) {
+         if (dirtyKeys.syncKeys == null)
+            return syncValues;
+
+         JSONObject dirtyValues = new JSONObject();
          try {
-            syncValues.put(key, value);
+            for (String key : dirtyKeys.syncKeys)
+               putIfHas(dirtyValues, syncValues, key);
+            // Derived from dependValues by addDependFields so it isn't marked when set.
+            putIfHas(dirtyValues, syncValues, "notification_types");
+            if (includeFields != null) {
+               for (String key : includeFields)
+                  putIfHas(dirtyValues, syncValues, key);
+            }
+
+            JSONObject tags = syncValues.optJSONObject("tags");
+            if (tags != null && dirtyKeys.tagKeys != null && dirtyValues.has("tags")) {
+               JSONObject dirtyTags = new JSONObject();
+               for (String tagKey : dirtyKeys.tagKeys)
+                  putIfHas(dirtyTags, tags, tagKey);
+               dirtyValues.put("tags", dirtyTags);
+            }
          } catch (JSONException e) {
             e.printStackTrace();
          }
+
+         return dirtyValues;
+      }
+
+      void set(String key, Object value) {
+         synchronized (syncLock) {
+            try {
+               ensureWritable();
+               syncValues.put(key, value);
+               markDirty(key);
+            } catch (JSONException e) {
+               e.printStackTrace();
+            }
+         }
       }
 
       void setState(String key, Object value) {
-         try {
-            dependValues.put(key, value);
-         } catch (JSONException e) {
-            e.printStackTrace();
+         synchronized (syncLock) {
+            try {
+               ensureWritable();
+               dependValues.put(key, value);
+            } catch (JSONException e) {
+               e.printStackTrace();
+            }
+         }
+      }
+
+      void mergeDependChanges(JSONObject changes) {
+         synchronized (syncLock) {
+            ensureWritable();
+            synchronizedGenerateJsonDiff(dependValues, changes, dependValues, null);
+         }
+      }
+
+      private void clearSyncValues() {
+         synchronized (syncLock) {
+            ensureWritable();
+            syncValues = new JSONObject();
          }
       }
 
       private void loadState() {
+         JSONObject[] storedValues = UserStateStore.load(appContext, persistKey);
+         if (storedValues != null) {
+            dependValues = storedValues[0];
+            syncValues = storedValues[1];
+            return;
+         }
+
+         loadLegacyState();
+      }
+
+      // State saved to SharedPreferences by older SDK versions, moved to UserStateStore on first load.
+      private void loadLegacyState() {
          final SharedPreferences prefs = OneSignal.getGcmPreferences(appContext);
 
          String dependValuesStr = prefs.getString("ONESIGNAL_USERSTATE_DEPENDVALYES_" + persistKey, null);
@@ -346,33 +574,34 @@ class OneSignalStateSynchronizer {
          } catch (JSONException e) {
             e.printStackTrace();
          }
+
+         if ((dependValuesStr != null || syncValuesStr != null)
+             && UserStateStore.persist(appContext, persistKey, dependValues, syncValues)) {
+            OneSignalPrefs.remove(appContext, "ONESIGNAL_USERSTATE_SYNCVALYES_" + persistKey);
+            OneSignalPrefs.remove(appContext, "ONESIGNAL_USERSTATE_DEPENDVALYES_" + persistKey);
+         }
       }
 
       private void persistState() {
          synchronized(syncLock) {
             modifySyncValuesJsonArray("pkgs");
-
-            final SharedPreferences prefs = OneSignal.getGcmPreferences(appContext);
-            SharedPreferences.Editor editor = prefs.edit();
-
-            editor.putString("ONESIGNAL_USERSTATE_SYNCVALYES_" + persistKey, syncValues.toString());
-            editor.putString("ONESIGNAL_USERSTATE_DEPENDVALYES_" + persistKey, dependValues.toString());
-            editor.commit();
+            UserStateStore.persist(appContext, persistKey, dependValues, syncValues);
          }
       }
 
       private void modifySyncValuesJsonArray(String baseKey) {
-         if (!syncValues.has(baseKey + "_d") && syncValues.has(baseKey + "_d"))
+         if (!syncValues.has(baseKey + "_a") && !syncValues.has(baseKey + "_d"))
             return;
 
          try {
+            ensureWritable();
             JSONArray orgArray = syncValues.has(baseKey) ? syncValues.getJSONArray(baseKey) : new JSONArray();
             JSONArray tempArray = new JSONArray();
 
             if (syncValues.has(baseKey + "_d")) {
-               String remArrayStr = toStringNE(syncValues.getJSONArray(baseKey + "_d"));
+               Set<String> remSet = toStringSet(syncValues.getJSONArray(baseKey + "_d"));
                for (int i = 0; i < orgArray.length(); i++)
-                  if (!remArrayStr.contains(orgArray.getString(i)))
+                  if (!remSet.contains(orgArray.getString(i)))
                      tempArray.put(orgArray.get(i));
             }
             else
@@ -392,10 +621,13 @@ class OneSignalStateSynchronizer {
 
       private void persistStateAfterSync(JSONObject inDependValues, JSONObject inSyncValues) {
          if (inDependValues != null)
-            OneSignalStateSynchronizer.generateJsonDiff(dependValues, inDependValues, dependValues, null);
+            mergeDependChanges(inDependValues);
 
          if (inSyncValues != null) {
-            OneSignalStateSynchronizer.generateJsonDiff(syncValues, inSyncValues, syncValues, null);
+            synchronized (syncLock) {
+               ensureWritable();
+               synchronizedGenerateJsonDiff(syncValues, inSyncValues, syncValues, null);
+            }
             mergeTags(inSyncValues, null);
          }
 
@@ -406,16 +638,9 @@ class OneSignalStateSynchronizer {
       void mergeTags(JSONObject inSyncValues, JSONObject omitKeys) {
          synchronized (syncLock) {
             if (inSyncValues.has("tags")) {
-               JSONObject newTags;
-               if (syncValues.has("tags")) {
-                  try {
-                     newTags = new JSONObject(syncValues.optString("tags"));
-                  } catch (JSONException e) {
-                     newTags = new JSONObject();
-                  }
-               }
-               else
-                  newTags = new JSONObject();
+               ensureWritable();
+               JSONObject savedTags = syncValues.optJSONObject("tags");
+               JSONObject newTags = savedTags != null ? deepCopy(savedTags) : new JSONObject();
 
                JSONObject curTags = inSyncValues.optJSONObject("tags");
                Iterator<String> keys = curTags.keys();
@@ -430,7 +655,7 @@ class OneSignalStateSynchronizer {
                         newTags.put(key, curTags.optString(key));
                   }
 
-                  if (newTags.toString().equals("{}"))
+                  if (newTags.length() == 0)
                      syncValues.remove("tags");
                   else
                      syncValues.put("tags", newTags);
@@ -447,15 +672,26 @@ class OneSignalStateSynchronizer {
 
       Handler mHandler = null;
 
-      static final int MAX_RETRIES = 3;
       int currentRetry;
+      RetryPolicy mRetryPolicy;
 
       NetworkHandlerThread(int type) {
          super("NetworkHandlerThread");
          mType = type;
+         mRetryPolicy = getRetryPolicy(type);
          start();
          mHandler = new Handler(getLooper());
       }
+
+      private static RetryPolicy getRetryPolicy(int type) {
+         switch (type) {
+            case NETWORK_HANDLER_USERSTATE:
+            default:
+               // 15 second base doubling up to 10 minutes, 5 retries.
+               //   Also the default so doRetry always has a policy for new handler types.
+               return new RetryPolicy(15000, 10 * 60 * 1000, 5, 10, 0.5);
+         }
+      }
    
       public void runNewJob() {
          currentRetry = 0;
@@ -481,11 +717,22 @@ class OneSignalStateSynchronizer {
          mHandler.removeCallbacksAndMessages(null);
       }
 
-      void doRetry() {
-         if (currentRetry < MAX_RETRIES && !mHandler.hasMessages(0)) {
-            currentRetry++;
-            mHandler.postDelayed(getNewRunnable(), currentRetry * 15000);
+      void doRetry(int statusCode) {
+         if (mHandler.hasMessages(0))
+            return;
+
+         long delay = mRetryPolicy.onFailure(currentRetry, statusCode);
+         if (delay < 0) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Giving up on retrying last request. statusCode: " + statusCode);
+            return;
          }
+
+         currentRetry++;
+         mHandler.postDelayed(getNewRunnable(), delay);
+      }
+
+      void onRequestSuccess() {
+         mRetryPolicy.onSuccess();
       }
    }
 
@@ -509,7 +756,9 @@ class OneSignalStateSynchronizer {
       final String userId = OneSignal.getUserId();
       boolean isSessionCall = userId == null || (nextSyncIsSession && !waitingForSessionResponse);
 
-      final JSONObject jsonBody = currentUserState.generateJsonDiff(toSyncUserState, isSessionCall);
+      // A create sends the full state, otherwise only what changed since the last sync is diffed.
+      final DirtyKeys dirtyKeys = toSyncUserState.takeDirtyKeys();
+      final JSONObject jsonBody = currentUserState.generateJsonDiff(toSyncUserState, isSessionCall, userId == null ? null : dirtyKeys);
       final JSONObject dependDiff = generateJsonDiff(currentUserState.dependValues, toSyncUserState.dependValues, null, null);
 
       if (jsonBody == null) {
@@ -519,8 +768,10 @@ class OneSignalStateSynchronizer {
       toSyncUserState.persistState();
 
       // Prevent non-create player network calls when we don't have a player id yet.
-      if (userId == null && !nextSyncIsSession)
+      if (userId == null && !nextSyncIsSession) {
+         toSyncUserState.restoreDirtyKeys(dirtyKeys);
          return;
+      }
 
       if (!isSessionCall || fromSyncService) {
          OneSignalRestClient.putSync("players/" + userId, jsonBody, new OneSignalRestClient.ResponseHandler() {
@@ -528,14 +779,17 @@ class OneSignalStateSynchronizer {
             void onFailure(int statusCode, String response, Throwable throwable) {
                OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Failed last request. statusCode: " + statusCode + "\nresponse: " + response);
 
+               toSyncUserState.restoreDirtyKeys(dirtyKeys);
+
                if (response400WithErrorsContaining(statusCode, response, "No user with this id found"))
                   handlePlayerDeletedFromServer();
                else
-                  getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry();
+                  getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry(statusCode);
             }
 
             @Override
             void onSuccess(String response) {
+               getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).onRequestSuccess();
                currentUserState.persistStateAfterSync(dependDiff, jsonBody);
             }
          });
@@ -548,26 +802,26 @@ class OneSignalStateSynchronizer {
             urlStr = "players/" + userId + "/on_session";
 
          waitingForSessionResponse = true;
-         OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.ResponseHandler() {
+         OneSignalRestClient.postSync(urlStr, jsonBody, new OneSignalRestClient.JSONResponseHandler() {
             @Override
             void onFailure(int statusCode, String response, Throwable throwable) {
                waitingForSessionResponse = false;
+               toSyncUserState.restoreDirtyKeys(dirtyKeys);
                OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Failed last request. statusCode: " + statusCode + "\nresponse: " + response);
 
                if (response400WithErrorsContaining(statusCode, response, "not a valid device_type"))
                   handlePlayerDeletedFromServer();
                else
-                  getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry();
+                  getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).doRetry(statusCode);
             }
 
             @Override
-            void onSuccess(String response) {
+            void onSuccess(JSONObject jsonResponse) {
+               getNetworkHandlerThread(NetworkHandlerThread.NETWORK_HANDLER_USERSTATE).onRequestSuccess();
                nextSyncIsSession = waitingForSessionResponse = false;
                currentUserState.persistStateAfterSync(dependDiff, jsonBody);
 
                try {
-                  JSONObject jsonResponse = new JSONObject(response);
-
                   if (jsonResponse.has("id")) {
                      String userId = jsonResponse.optString("id");
                      OneSignal.updateUserIdDependents(userId);
@@ -621,29 +875,25 @@ class OneSignalStateSynchronizer {
    }
 
    static void postUpdate(UserState postSession, boolean isSession) {
-      JSONObject toSync = getUserStateForModification().syncValues;
-      generateJsonDiff(toSync, postSession.syncValues, toSync, null);
-      JSONObject dependValues = getUserStateForModification().dependValues;
-      generateJsonDiff(dependValues, postSession.dependValues, dependValues, null);
+      getUserStateForModification().mergeChanges(postSession.syncValues);
+      getUserStateForModification().mergeDependChanges(postSession.dependValues);
 
       nextSyncIsSession = nextSyncIsSession || isSession || OneSignal.getUserId() == null;
    }
 
    static void sendTags(JSONObject newTags) {
-      JSONObject userStateTags = getUserStateForModification().syncValues;
       try {
-         generateJsonDiff(userStateTags, new JSONObject().put("tags", newTags), userStateTags, null);
+         getUserStateForModification().mergeChanges(new JSONObject().put("tags", newTags));
       } catch (JSONException e) { e.printStackTrace(); }
    }
 
    static void syncHashedEmail(String email) {
-      JSONObject syncValues = getUserStateForModification().syncValues;
       try {
          JSONObject emailFields = new JSONObject();
          emailFields.put("em_m", hexDigest(email, "MD5"));
          emailFields.put("em_s", hexDigest(email, "SHA-1"));
 
-         generateJsonDiff(syncValues, emailFields, syncValues, null);
+         getUserStateForModification().mergeChanges(emailFields);
       } catch (Throwable t) { t.printStackTrace(); }
    }
 
@@ -663,23 +913,15 @@ class OneSignalStateSynchronizer {
    }
 
    static void setSubscription(boolean enable) {
-      try {
-         getUserStateForModification().dependValues.put("userSubscribePref", enable);
-      } catch (JSONException e) {
-         e.printStackTrace();
-      }
+      getUserStateForModification().setState("userSubscribePref", enable);
    }
 
    static void updateLocation(Double lat, Double log, Float accuracy, Integer type) {
       UserState userState = getUserStateForModification();
-      try {
-         userState.syncValues.put("lat", lat);
-         userState.syncValues.put("long", log);
-         userState.syncValues.put("loc_acc", accuracy);
-         userState.syncValues.put("loc_type", type);
-      } catch (JSONException e) {
-         e.printStackTrace();
-      }
+      userState.set("lat", lat);
+      userState.set("long", log);
+      userState.set("loc_acc", accuracy);
+      userState.set("loc_type", type);
    }
 
    static boolean getSubscribed() {
@@ -704,27 +946,24 @@ class OneSignalStateSynchronizer {
    static GetTagsResult getTags(boolean fromServer) {
       if (fromServer) {
          String userId = OneSignal.getUserId();
-         OneSignalRestClient.getSync("players/" + userId, new OneSignalRestClient.ResponseHandler() {
+         OneSignalRestClient.getSync("players/" + userId, new OneSignalRestClient.JSONResponseHandler() {
             @Override
-            void onSuccess(String responseStr) {
+            void onSuccess(JSONObject lastGetTagsResponse) {
                serverSuccess = true;
-               try {
-                  JSONObject lastGetTagsResponse = new JSONObject(responseStr);
-                  if (lastGetTagsResponse.has("tags")) {
-                     JSONObject dependDiff = generateJsonDiff(currentUserState.syncValues.optJSONObject("tags"),
-                                                              toSyncUserState.syncValues.optJSONObject("tags"),
-                                                              null, null);
-
-                     currentUserState.syncValues.put("tags", lastGetTagsResponse.optJSONObject("tags"));
-                     currentUserState.persistState();
-
-                     // Allow server side tags to overwrite local tags expect for any pending changes
-                     //  that haven't been successfully posted.
-                     toSyncUserState.mergeTags(lastGetTagsResponse, dependDiff);
-                     toSyncUserState.persistState();
-                  }
-               } catch (JSONException e) {
-                  e.printStackTrace();
+               if (lastGetTagsResponse.has("tags")) {
+                  JSONObject dependDiff = generateJsonDiff(currentUserState.syncValues.optJSONObject("tags"),
+                                                           toSyncUserState.syncValues.optJSONObject("tags"),
+                                                           null, null);
+
+                  currentUserState.set("tags", lastGetTagsResponse.optJSONObject("tags"));
+                  currentUserState.persistState();
+
+                  // Allow server side tags to overwrite local tags expect for any pending changes
+                  //  that haven't been successfully posted.
+                  toSyncUserState.mergeTags(lastGetTagsResponse, dependDiff);
+                  // Tags on both sides were just replaced, diff all of them next sync.
+                  toSyncUserState.markAllTagsDirty();
+                  toSyncUserState.persistState();
                }
             }
          });
@@ -736,8 +975,10 @@ class OneSignalStateSynchronizer {
    static void resetCurrentState() {
       OneSignal.saveUserId(null);
 
-      currentUserState.syncValues = new JSONObject();
+      currentUserState.clearSyncValues();
       currentUserState.persistState();
+      if (toSyncUserState != null)
+         toSyncUserState.markAllDirty();
       OneSignal.setLastSessionTime(-60 * 61);
    }
 
@@ -0,0 +1,332 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.onesignal.OneSignalDbContract.OutboundRequestTable;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Durable queue for REST mutations that would otherwise be lost if the device is offline or the process dies.
+//   enqueueBatch saves requests to the outbound_request table and the replay thread sends them one at a time, oldest first,
+//   deleting each once the server answers it. Requests that fail from a network error or a 5xx stay in the table and are
+//   retried with jittered exponential backoff from RetryPolicy. A replay is also kicked off on init and when connectivity returns.
+// Requests are fire and forget, nothing is reported back to the caller.
+// Only idempotent requests belong here. A timeout or 5xx does not mean the server didn't apply the request, so a replayed
+//   POST such as notifications/ or on_purchase could create a second notification or count a purchase twice.
+class OutboundRequestQueue {
+
+   static final String METHOD_PUT = "PUT";
+
+   private static final int REPLAY_BATCH_SIZE = 20;
+   private static final long MIN_REPLAY_DELAY = 5000;
+   private static final long MAX_REPLAY_DELAY = 10 * 60 * 1000;
+   private static final int MAX_ATTEMPTS = 20;
+   private static final long MAX_REQUEST_AGE_SECONDS = 7 * 24 * 60 * 60;
+
+   private static final Object queueLock = new Object();
+
+   static ReplayHandlerThread replayHandlerThread;
+   private static BroadcastReceiver connectivityReceiver;
+   private static int consecutiveReplayFailures;
+   private static RetryPolicy replayRetryPolicy = new RetryPolicy(MIN_REPLAY_DELAY, MAX_REPLAY_DELAY, MAX_ATTEMPTS, 0, 0);
+
+   // Saves all requests in one transaction and lets the replay thread send them back to back after sendDelay.
+   //   Used for bursts of requests where a thread and a response callback per request would be wasteful.
+   static void enqueueBatch(Context context, final String method, final List<String> urls, final List<JSONObject> jsonBodies, long sendDelay) {
+      synchronized (queueLock) {
+         OneSignalDbExecutor.write(context, "Error saving outbound requests.", new OneSignalDbExecutor.WriteTask<Void>() {
+            @Override
+            public Void run(SQLiteDatabase writableDb) {
+               for (int i = 0; i < urls.size(); i++) {
+                  ContentValues values = new ContentValues();
+                  values.put(OutboundRequestTable.COLUMN_NAME_METHOD, method);
+                  values.put(OutboundRequestTable.COLUMN_NAME_URL, urls.get(i));
+                  values.put(OutboundRequestTable.COLUMN_NAME_BODY, jsonBodies.get(i).toString());
+                  writableDb.insert(OutboundRequestTable.TABLE_NAME, null, values);
+               }
+               return null;
+            }
+         });
+
+         scheduleReplay(context, sendDelay);
+      }
+   }
+
+   // Replays anything left over from a previous session.
+   static void replay(Context context) {
+      scheduleReplay(context, 0);
+   }
+
+   static int getQueuedRequestCount(Context context) {
+      Cursor cursor = null;
+      try {
+         SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDatabase();
+         cursor = readableDb.rawQuery("SELECT COUNT(*) FROM " + OutboundRequestTable.TABLE_NAME, null);
+         return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+      } catch (Throwable t) {
+         OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error counting queued requests.", t);
+         return 0;
+      } finally {
+         if (cursor != null)
+            cursor.close();
+      }
+   }
+
+   private static void deleteRequest(Context context, final long rowId) {
+      OneSignalDbExecutor.write(context, "Error deleting outbound request.", new OneSignalDbExecutor.WriteTask<Void>() {
+         @Override
+         public Void run(SQLiteDatabase writableDb) {
+            writableDb.delete(OutboundRequestTable.TABLE_NAME, OutboundRequestTable._ID + " = " + rowId, null);
+            return null;
+         }
+      });
+   }
+
+   private static void scheduleReplay(Context context, long delay) {
+      synchronized (queueLock) {
+         if (replayHandlerThread == null)
+            replayHandlerThread = new ReplayHandlerThread(context.getApplicationContext());
+         replayHandlerThread.schedule(delay);
+      }
+   }
+
+   // Jittered exponential backoff from MIN_REPLAY_DELAY up to MAX_REPLAY_DELAY.
+   //   Only the delay is taken from the policy, queued requests are never abandoned for running out of budget.
+   private static long getReplayDelay() {
+      return replayRetryPolicy.getDelay(consecutiveReplayFailures);
+   }
+
+   // Wakes up the replay as soon as the device is back online instead of waiting out the backoff.
+   //   Only registered while requests are waiting.
+   private static void registerConnectivityReceiver(Context context) {
+      if (connectivityReceiver != null)
+         return;
+
+      connectivityReceiver = new BroadcastReceiver() {
+         @Override
+         public void onReceive(Context context, Intent intent) {
+            if (!isConnected(context))
+               return;
+
+            synchronized (queueLock) {
+               consecutiveReplayFailures = 0;
+               if (replayHandlerThread != null)
+                  replayHandlerThread.schedule(0);
+            }
+         }
+      };
+
+      try {
+         context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+      } catch (Throwable t) {
+         connectivityReceiver = null;
+         OneSignal.Log(OneSignal.LOG_LEVEL.WARN, "Could not listen for connectivity changes.", t);
+      }
+   }
+
+   private static void unregisterConnectivityReceiver(Context context) {
+      if (connectivityReceiver == null)
+         return;
+
+      try {
+         context.unregisterReceiver(connectivityReceiver);
+      } catch (Throwable t) {}
+      connectivityReceiver = null;
+   }
+
+   private static boolean isConnected(Context context) {
+      try {
+         ConnectivityManager cm = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+         NetworkInfo netInfo = cm.getActiveNetworkInfo();
+         return netInfo != null && netInfo.isConnected();
+      } catch (Throwable t) {
+         return true;
+      }
+   }
+
+   private static class QueuedRequest {
+      long rowId;
+      String method;
+      String url;
+      JSONObject jsonBody;
+      int attempts;
+   }
+
+   // Sends queued requests one after another on a single thread so a reconnect doesn't start a thread per request.
+   static class ReplayHandlerThread extends HandlerThread {
+      private Handler mHandler;
+      private Context mContext;
+
+      ReplayHandlerThread(Context context) {
+         super("OSOutboundRequestQueue");
+         mContext = context;
+         start();
+         mHandler = new Handler(getLooper());
+      }
+
+      void schedule(long delay) {
+         mHandler.removeCallbacksAndMessages(null);
+         mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+               replayBatches();
+            }
+         }, delay);
+      }
+
+      private void replayBatches() {
+         while (true) {
+            List<QueuedRequest> batch = loadBatch();
+            if (batch.isEmpty()) {
+               synchronized (queueLock) {
+                  consecutiveReplayFailures = 0;
+                  unregisterConnectivityReceiver(mContext);
+               }
+               return;
+            }
+
+            for (QueuedRequest request : batch) {
+               if (!send(request)) {
+                  synchronized (queueLock) {
+                     consecutiveReplayFailures++;
+                     registerConnectivityReceiver(mContext);
+                     schedule(getReplayDelay());
+                  }
+                  return;
+               }
+            }
+         }
+      }
+
+      private List<QueuedRequest> loadBatch() {
+         Cursor cursor = null;
+         try {
+            OneSignalDbExecutor.write(mContext, "Error deleting expired outbound requests.", new OneSignalDbExecutor.WriteTask<Void>() {
+               @Override
+               public Void run(SQLiteDatabase writableDb) {
+                  writableDb.delete(OutboundRequestTable.TABLE_NAME,
+                                    OutboundRequestTable.COLUMN_NAME_CREATED_TIME + " < " + (System.currentTimeMillis() / 1000L - MAX_REQUEST_AGE_SECONDS) +
+                                    " OR " + OutboundRequestTable.COLUMN_NAME_ATTEMPTS + " >= " + MAX_ATTEMPTS,
+                                    null);
+                  return null;
+               }
+            });
+
+            SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(mContext).getReadableDatabase();
+
+            cursor = readableDb.query(OutboundRequestTable.TABLE_NAME,
+                                      new String[]{OutboundRequestTable._ID, OutboundRequestTable.COLUMN_NAME_METHOD, OutboundRequestTable.COLUMN_NAME_URL,
+                                                   OutboundRequestTable.COLUMN_NAME_BODY, OutboundRequestTable.COLUMN_NAME_ATTEMPTS},
+                                      null, null, null, null,
+                                      OutboundRequestTable._ID + " ASC",
+                                      Integer.toString(REPLAY_BATCH_SIZE));
+
+            List<QueuedRequest> batch = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+               QueuedRequest request = new QueuedRequest();
+               request.rowId = cursor.getLong(0);
+               request.method = cursor.getString(1);
+               request.url = cursor.getString(2);
+               try {
+                  request.jsonBody = new JSONObject(cursor.getString(3));
+               } catch (Throwable t) {
+                  OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Dropping unreadable outbound request.", t);
+                  deleteRequest(mContext, request.rowId);
+                  continue;
+               }
+               request.attempts = cursor.getInt(4);
+               batch.add(request);
+            }
+            return batch;
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error reading outbound requests.", t);
+            return new ArrayList<>();
+         } finally {
+            if (cursor != null)
+               cursor.close();
+         }
+      }
+
+      // Returns false if the request should be retried later.
+      private boolean send(final QueuedRequest request) {
+         final boolean[] delivered = new boolean[1];
+         OneSignalRestClient.ResponseHandler replayHandler = new OneSignalRestClient.ResponseHandler() {
+            @Override
+            void onSuccess(String response) {
+               delivered[0] = true;
+               deleteRequest(mContext, request.rowId);
+            }
+
+            @Override
+            void onFailure(int statusCode, String response, Throwable throwable) {
+               if (RetryPolicy.isRetryable(statusCode)) {
+                  incrementAttempts(request);
+                  return;
+               }
+
+               delivered[0] = true;
+               deleteRequest(mContext, request.rowId);
+            }
+         };
+
+         if (METHOD_PUT.equals(request.method))
+            OneSignalRestClient.putSync(request.url, request.jsonBody, replayHandler);
+         else
+            OneSignalRestClient.postSync(request.url, request.jsonBody, replayHandler);
+
+         return delivered[0];
+      }
+
+      private void incrementAttempts(final QueuedRequest request) {
+         OneSignalDbExecutor.write(mContext, "Error updating outbound request.", new OneSignalDbExecutor.WriteTask<Void>() {
+            @Override
+            public Void run(SQLiteDatabase writableDb) {
+               ContentValues values = new ContentValues();
+               values.put(OutboundRequestTable.COLUMN_NAME_ATTEMPTS, request.attempts + 1);
+               writableDb.update(OutboundRequestTable.TABLE_NAME, values, OutboundRequestTable._ID + " = " + request.rowId, null);
+               return null;
+            }
+         });
+      }
+   }
+}
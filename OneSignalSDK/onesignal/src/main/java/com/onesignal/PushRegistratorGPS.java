@@ -35,7 +35,6 @@ import android.app.AlertDialog;
 import android.app.PendingIntent.CanceledException;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.SharedPreferences;
 import android.content.DialogInterface.OnClickListener;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -86,8 +85,7 @@ public class PushRegistratorGPS implements PushRegistrator {
          PackageInfo info = pm.getPackageInfo("com.google.android.gms", PackageManager.GET_ACTIVITIES);
 
          if (!info.applicationInfo.enabled && isGooglePlayStoreInstalled()) {
-            final SharedPreferences prefs = OneSignal.getGcmPreferences(appContext);
-            if (prefs.getBoolean("GT_DO_NOT_SHOW_MISSING_GPS", false))
+            if (OneSignalPrefs.getBoolean(appContext, "GT_DO_NOT_SHOW_MISSING_GPS", false))
                return false;
 
             try {
@@ -130,10 +128,7 @@ public class PushRegistratorGPS implements PushRegistrator {
             }).setNegativeButton(alertButtonSkip, new OnClickListener() {
                @Override
                public void onClick(DialogInterface dialog, int which) {
-                  final SharedPreferences prefs = OneSignal.getGcmPreferences(activity);
-                  SharedPreferences.Editor editor = prefs.edit();
-                  editor.putBoolean("GT_DO_NOT_SHOW_MISSING_GPS", true);
-                  editor.commit();
+                  OneSignalPrefs.saveBoolean(activity, "GT_DO_NOT_SHOW_MISSING_GPS", true);
                }
             }).setNeutralButton(alertButtonClose, null).create().show();
          }
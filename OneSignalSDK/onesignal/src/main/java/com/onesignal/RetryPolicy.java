@@ -0,0 +1,137 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.onesignal;
+
+import java.util.Random;
+
+// Decides if and when a failed request is retried.
+//   - Delays grow exponentially from baseDelay up to maxDelay, with full jitter (a random delay between 0 and the
+//     exponential value) so devices that failed at the same time don't all retry at the same time.
+//   - 4xx responses are not retried since the same request will fail the same way, except for 408 and 429.
+//   - 5xx responses are retried but also spend from a retry budget that is only refilled by successful requests.
+//     While the server keeps failing the budget runs dry and retries stop instead of adding to the load.
+//   - Network errors (no status code) are retried without spending budget, the server never saw them.
+class RetryPolicy {
+
+   static final int FAILURE_NETWORK = 0;
+   static final int FAILURE_CLIENT = 1;
+   static final int FAILURE_SERVER = 2;
+
+   private final long baseDelay;
+   private final long maxDelay;
+   private final int maxRetries;
+   private final double maxBudget;
+   private final double budgetRefillPerSuccess;
+
+   private double budget;
+   private final Random random = new Random();
+
+   private int retriesAttempted, retriesAbandoned;
+   private int clientFailures, serverFailures, networkFailures;
+
+   RetryPolicy(long baseDelay, long maxDelay, int maxRetries, double maxBudget, double budgetRefillPerSuccess) {
+      this.baseDelay = baseDelay;
+      this.maxDelay = maxDelay;
+      this.maxRetries = maxRetries;
+      this.maxBudget = maxBudget;
+      this.budgetRefillPerSuccess = budgetRefillPerSuccess;
+      budget = maxBudget;
+   }
+
+   static int classifyFailure(int statusCode) {
+      if (statusCode == 408 || statusCode == 429)
+         return FAILURE_SERVER;
+      if (statusCode >= 400 && statusCode < 500)
+         return FAILURE_CLIENT;
+      if (statusCode >= 500)
+         return FAILURE_SERVER;
+      return FAILURE_NETWORK;
+   }
+
+   static boolean isRetryable(int statusCode) {
+      return classifyFailure(statusCode) != FAILURE_CLIENT;
+   }
+
+   // Call after a failed attempt. attempt is the number of retries already made for the request.
+   //   Returns the delay before the next retry, or -1 if the request should be given up on.
+   synchronized long onFailure(int attempt, int statusCode) {
+      int failureType = classifyFailure(statusCode);
+      if (failureType == FAILURE_CLIENT)
+         clientFailures++;
+      else if (failureType == FAILURE_SERVER)
+         serverFailures++;
+      else
+         networkFailures++;
+
+      boolean retry = failureType != FAILURE_CLIENT && attempt < maxRetries;
+      if (retry && failureType == FAILURE_SERVER) {
+         if (budget >= 1)
+            budget--;
+         else
+            retry = false;
+      }
+
+      if (!retry) {
+         retriesAbandoned++;
+         return -1;
+      }
+
+      retriesAttempted++;
+      return getDelay(attempt);
+   }
+
+   synchronized void onSuccess() {
+      budget = Math.min(maxBudget, budget + budgetRefillPerSuccess);
+   }
+
+   // Full jitter, random between 0 and baseDelay * 2^attempt capped at maxDelay.
+   synchronized long getDelay(int attempt) {
+      long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+      return (long)(random.nextDouble() * ceiling);
+   }
+
+   synchronized int getRetriesAttempted() {
+      return retriesAttempted;
+   }
+
+   synchronized int getRetriesAbandoned() {
+      return retriesAbandoned;
+   }
+
+   synchronized int getClientFailures() {
+      return clientFailures;
+   }
+
+   synchronized int getServerFailures() {
+      return serverFailures;
+   }
+
+   synchronized int getNetworkFailures() {
+      return networkFailures;
+   }
+}
@@ -65,6 +65,7 @@ public class SyncService extends Service {
             OneSignalStateSynchronizer.initUserState(OneSignal.appContext);
             OneSignalStateSynchronizer.syncUserState(true);
             checkOnFocusSync();
+            OneSignalPrefs.flush();
 
             stopSelf();
          }
@@ -105,6 +106,7 @@ public class SyncService extends Service {
       ActivityLifecycleHandler.focusHandlerThread.stopScheduledRunnable();
       OneSignalStateSynchronizer.stopAndPersist();
       OneSignal.onAppLostFocus(true); // Save only
+      OneSignalPrefs.flush();
       OneSignal.Log(OneSignal.LOG_LEVEL.VERBOSE, "Completed SyncService:onTaskRemoved.");
    }
 }
@@ -36,6 +36,9 @@ public class UpgradeReceiver extends WakefulBroadcastReceiver {
 
    @Override
    public void onReceive(Context context, Intent intent) {
+      // Resources and assets may have been added or removed by the update.
+      NotificationResourceCache.clear();
+
       Intent intentForService = new Intent();
       intentForService.setComponent(new ComponentName(context.getPackageName(),
                                     NotificationRestoreService.class.getName()));
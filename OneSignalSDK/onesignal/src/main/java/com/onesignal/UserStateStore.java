@@ -0,0 +1,241 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.onesignal;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.onesignal.OneSignalDbContract.UserStateTable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Saves UserState field by field in the user_state table instead of as two JSON strings in SharedPreferences.
+//   Every top level value of dependValues and syncValues is its own row and every key of a nested object,
+//   such as each tag, is its own row under it. Rows last written are remembered so persist only upserts
+//   and deletes the fields that changed, all in one transaction so they share a single journal sync.
+class UserStateStore {
+
+   static final String SECTION_DEPEND = "depend";
+   static final String SECTION_SYNC = "sync";
+
+   private static final String PATH_SEPARATOR = "/";
+   // Stored for a nested object itself so empty objects survive a reload.
+   private static final String OBJECT_MARKER = "{}";
+
+   private static final Object storeLock = new Object();
+
+   // persistKey -> (path -> value) as it is in the table, null until loaded or fully written once.
+   private static Map<String, Map<String, String>> persistedFields = new HashMap<>();
+
+   private static long lastLoadTime;
+   private static long lastBytesWritten;
+   private static long totalBytesWritten;
+   private static int lastFieldsWritten;
+
+   // Returns {dependValues, syncValues} or null if nothing has been saved for persistKey yet.
+   static JSONObject[] load(Context context, String persistKey) {
+      long startTime = System.nanoTime();
+      Map<String, String> fields = new HashMap<>();
+      JSONObject dependValues = new JSONObject(), syncValues = new JSONObject();
+
+      synchronized (storeLock) {
+         Cursor cursor = null;
+         try {
+            SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(context).getReadableDatabase();
+            cursor = readableDb.query(UserStateTable.TABLE_NAME,
+                                      new String[] { UserStateTable.COLUMN_NAME_PATH, UserStateTable.COLUMN_NAME_VALUE },
+                                      UserStateTable.COLUMN_NAME_STATE + " = ?",
+                                      new String[] { persistKey },
+                                      null, null, null);
+
+            while (cursor.moveToNext()) {
+               String path = cursor.getString(0), value = cursor.getString(1);
+               fields.put(path, value);
+               putField(path, value, dependValues, syncValues);
+            }
+         } catch (Throwable t) {
+            OneSignal.Log(OneSignal.LOG_LEVEL.ERROR, "Error loading user state " + persistKey + ".", t);
+            return null;
+         } finally {
+            if (cursor != null)
+               cursor.close();
+         }
+
+         if (fields.isEmpty())
+            return null;
+
+         persistedFields.put(persistKey, fields);
+      }
+
+      lastLoadTime = (System.nanoTime() - startTime) / 1000000;
+      OneSignal.Log(OneSignal.LOG_LEVEL.DEBUG, "Loaded " + fields.size() + " user state fields for " + persistKey + " in " + lastLoadTime + "ms.");
+      return new JSONObject[] { dependValues, syncValues };
+   }
+
+   // Returns false if the state could not be saved.
+   static boolean persist(Context context, final String persistKey, JSONObject dependValues, JSONObject syncValues) {
+      final Map<String, String> fields = new HashMap<>();
+      flatten(SECTION_DEPEND, dependValues, fields);
+      flatten(SECTION_SYNC, syncValues, fields);
+
+      synchronized (storeLock) {
+         final Map<String, String> lastFields = persistedFields.get(persistKey);
+
+         // {bytes, fields} written.
+         long[] written = OneSignalDbExecutor.write(context, "Error saving user state " + persistKey + ".", new OneSignalDbExecutor.WriteTask<long[]>() {
+            @Override
+            public long[] run(SQLiteDatabase writableDb) {
+               long bytesWritten = 0;
+               int fieldsWritten = 0;
+
+               // Never loaded or written in this process, start from a clean slate.
+               if (lastFields == null)
+                  writableDb.delete(UserStateTable.TABLE_NAME, UserStateTable.COLUMN_NAME_STATE + " = ?", new String[] { persistKey });
+               else {
+                  for (String path : lastFields.keySet()) {
+                     if (fields.containsKey(path))
+                        continue;
+                     writableDb.delete(UserStateTable.TABLE_NAME,
+                                       UserStateTable.COLUMN_NAME_STATE + " = ? AND " + UserStateTable.COLUMN_NAME_PATH + " = ?",
+                                       new String[] { persistKey, path });
+                     fieldsWritten++;
+                  }
+               }
+
+               for (Map.Entry<String, String> field : fields.entrySet()) {
+                  if (lastFields != null && field.getValue().equals(lastFields.get(field.getKey())))
+                     continue;
+
+                  ContentValues values = new ContentValues();
+                  values.put(UserStateTable.COLUMN_NAME_STATE, persistKey);
+                  values.put(UserStateTable.COLUMN_NAME_PATH, field.getKey());
+                  values.put(UserStateTable.COLUMN_NAME_VALUE, field.getValue());
+                  writableDb.insertWithOnConflict(UserStateTable.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                  bytesWritten += field.getKey().length() + field.getValue().length();
+                  fieldsWritten++;
+               }
+
+               return new long[] { bytesWritten, fieldsWritten };
+            }
+         });
+
+         if (written == null) {
+            // Unknown what made it to disk, rewrite everything next time.
+            persistedFields.remove(persistKey);
+            return false;
+         }
+
+         persistedFields.put(persistKey, fields);
+         lastBytesWritten = written[0];
+         lastFieldsWritten = (int)written[1];
+         totalBytesWritten += written[0];
+      }
+
+      return true;
+   }
+
+   private static void flatten(String section, JSONObject values, Map<String, String> fields) {
+      Iterator<String> keys = values.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         String path = section + PATH_SEPARATOR + key;
+         Object value = values.opt(key);
+
+         if (value instanceof JSONObject) {
+            fields.put(path, OBJECT_MARKER);
+            JSONObject nested = (JSONObject)value;
+            Iterator<String> nestedKeys = nested.keys();
+            while (nestedKeys.hasNext()) {
+               String nestedKey = nestedKeys.next();
+               fields.put(path + PATH_SEPARATOR + nestedKey, encodeValue(nested.opt(nestedKey)));
+            }
+         }
+         else
+            fields.put(path, encodeValue(value));
+      }
+   }
+
+   private static void putField(String path, String value, JSONObject dependValues, JSONObject syncValues) throws JSONException {
+      // Keys inside nested objects, such as tag keys, may themselves contain the separator.
+      String[] parts = path.split(PATH_SEPARATOR, 3);
+      if (parts.length < 2)
+         return;
+
+      JSONObject sectionValues = SECTION_DEPEND.equals(parts[0]) ? dependValues : syncValues;
+
+      if (parts.length == 2) {
+         if (OBJECT_MARKER.equals(value)) {
+            if (!sectionValues.has(parts[1]))
+               sectionValues.put(parts[1], new JSONObject());
+         }
+         else
+            sectionValues.put(parts[1], decodeValue(value));
+         return;
+      }
+
+      JSONObject nested = sectionValues.optJSONObject(parts[1]);
+      if (nested == null) {
+         nested = new JSONObject();
+         sectionValues.put(parts[1], nested);
+      }
+      nested.put(parts[2], decodeValue(value));
+   }
+
+   private static String encodeValue(Object value) {
+      return new JSONArray().put(value).toString();
+   }
+
+   private static Object decodeValue(String value) throws JSONException {
+      return new JSONArray(value).get(0);
+   }
+
+   static long getLastLoadTime() {
+      return lastLoadTime;
+   }
+
+   static long getLastBytesWritten() {
+      return lastBytesWritten;
+   }
+
+   static long getTotalBytesWritten() {
+      return totalBytesWritten;
+   }
+
+   static int getLastFieldsWritten() {
+      return lastFieldsWritten;
+   }
+}
@@ -1,6 +1,8 @@
 package com.onesignal;
 
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Looper;
 
@@ -27,6 +29,197 @@ public class OneSignalPackagePrivateHelper {
       while (scheduler.advanceToNextPostedRunnable());
    }
 
+   public static void runOutboundRequestQueueRunnables() {
+      if (OutboundRequestQueue.replayHandlerThread == null) return;
+
+      Scheduler scheduler = shadowOf(OutboundRequestQueue.replayHandlerThread.getLooper()).getScheduler();
+      while (scheduler.advanceToNextPostedRunnable());
+   }
+
+   public static void runNotificationRetentionRunnables() {
+      if (NotificationRetention.pruneHandlerThread == null) return;
+
+      Scheduler scheduler = shadowOf(NotificationRetention.pruneHandlerThread.getLooper()).getScheduler();
+      while (scheduler.advanceToNextPostedRunnable());
+   }
+
+   public static void runNextNotificationRetentionRunnable() {
+      if (NotificationRetention.pruneHandlerThread == null) return;
+
+      shadowOf(NotificationRetention.pruneHandlerThread.getLooper()).getScheduler().advanceToNextPostedRunnable();
+   }
+
+   public static void NotificationRetention_saveLimits(Context context, long maxAgeSeconds, int maxCount) {
+      NotificationRetention.saveLimits(context, maxAgeSeconds, maxCount);
+   }
+
+   public static void NotificationRetention_schedule(Context context) {
+      NotificationRetention.schedule(context);
+   }
+
+   public static int NotificationRetention_getPrunedCount() {
+      return NotificationRetention.getPrunedCount();
+   }
+
+   public static int OutboundRequestQueue_getQueuedRequestCount(Context context) {
+      return OutboundRequestQueue.getQueuedRequestCount(context);
+   }
+
+   public static int NotificationOpenedReporter_getRequestsSavedCount() {
+      return NotificationOpenedReporter.getRequestsSavedCount();
+   }
+
+   public static boolean OneSignal_getSoundEnabled(Context context) {
+      return OneSignal.getSoundEnabled(context);
+   }
+
+   public static int OneSignalPrefs_getDiskReadCount() {
+      return OneSignalPrefs.getDiskReadCount();
+   }
+
+   public static void OneSignalPrefs_saveString(Context context, String key, String value) {
+      OneSignalPrefs.saveString(context, key, value);
+   }
+
+   public static String OneSignalPrefs_getString(Context context, String key, String defValue) {
+      return OneSignalPrefs.getString(context, key, defValue);
+   }
+
+   public static int OneSignalPrefs_getCoalescedWriteCount() {
+      return OneSignalPrefs.getCoalescedWriteCount();
+   }
+
+   public static void OneSignalDbExecutor_write(Context context, final Runnable runnable) {
+      OneSignalDbExecutor.write(context, "", new OneSignalDbExecutor.WriteTask<Void>() {
+         @Override
+         public Void run(SQLiteDatabase writableDb) {
+            runnable.run();
+            return null;
+         }
+      });
+   }
+
+   public static boolean OneSignalDbExecutor_hasQueuedWriters() {
+      return OneSignalDbExecutor.writeLock.hasQueuedThreads();
+   }
+
+   public static long OneSignalDbExecutor_getContendedWriteCount() {
+      return OneSignalDbExecutor.getContendedWriteCount();
+   }
+
+   public static int NotificationRestorer_getLastRestoreCount() {
+      return NotificationRestorer.getLastRestoreCount();
+   }
+
+   public static Bitmap NotificationImageCache_get(Context context, String location, int reqWidth, int reqHeight) {
+      return NotificationImageCache.get(context, location, reqWidth, reqHeight);
+   }
+
+   public static long NotificationImageDecoder_getDecodedByteCount() {
+      return NotificationImageDecoder.getDecodedByteCount();
+   }
+
+   public static void NotificationMediaPrefetcher_setDeadline(long deadline) {
+      NotificationMediaPrefetcher.deadline = deadline;
+   }
+
+   public static int NotificationMediaPrefetcher_getDeadlineMissedCount() {
+      return NotificationMediaPrefetcher.getDeadlineMissedCount();
+   }
+
+   public static void NotificationImageCache_clearMemory() {
+      NotificationImageCache.clearMemory();
+   }
+
+   public static int NotificationImageCache_getDownloadCount() {
+      return NotificationImageCache.getDownloadCount();
+   }
+
+   public static int NotificationImageCache_getMemoryHitCount() {
+      return NotificationImageCache.getMemoryHitCount();
+   }
+
+   public static int NotificationImageCache_getDiskHitCount() {
+      return NotificationImageCache.getDiskHitCount();
+   }
+
+   public static float NotificationImageCache_getHitRate() {
+      return NotificationImageCache.getHitRate();
+   }
+
+   public static int NotificationResourceCache_getMissCount() {
+      return NotificationResourceCache.getMissCount();
+   }
+
+   public static int NotificationMessage_getBuildCount() {
+      return NotificationMessage.getBuildCount();
+   }
+
+   public static int NotificationGroupIndex_getRebuildCount() {
+      return NotificationGroupIndex.getRebuildCount();
+   }
+
+   public static int NotificationGroupIndex_getCount(Context context, String groupId) {
+      return NotificationGroupIndex.get(OneSignalDbHelper.getInstance(context).getReadableDatabase(), groupId).count;
+   }
+
+   // Adds a child to the group in a write that then fails and is rolled back.
+   public static void NotificationGroupIndex_addChildThenFail(Context context, final String groupId) {
+      OneSignalDbExecutor.write(context, "Expected test failure", new OneSignalDbExecutor.WriteTask<Void>() {
+         @Override
+         public Void run(SQLiteDatabase writableDb) throws Exception {
+            NotificationGroupIndex.addChild(writableDb, groupId, Long.MAX_VALUE, 1, "Title", "Message");
+            throw new Exception("Rolling back");
+         }
+      });
+   }
+
+   public static int NotificationIdFilter_getAvoidedLookupCount() {
+      return NotificationIdFilter.getAvoidedLookupCount();
+   }
+
+   public static int UserStateStore_getLastFieldsWritten() {
+      return UserStateStore.getLastFieldsWritten();
+   }
+
+   // Returns {dependValues, syncValues} as saved in the user_state table.
+   public static JSONObject[] UserStateStore_load(Context context, String persistKey) {
+      return UserStateStore.load(context, persistKey);
+   }
+
+   public static class UserStateDiffResult {
+      public String fullDiff, dirtyDiff;
+      public int syncKeysCompared, tagKeysCompared;
+   }
+
+   // Diffs a user with tagCount tags where one tag changed, walking the full state vs only the dirty keys.
+   public static UserStateDiffResult diffUserStateWithOneChangedTag(int tagCount) throws Exception {
+      OneSignalStateSynchronizer.UserState currentState = OneSignalStateSynchronizer.getNewUserState();
+      OneSignalStateSynchronizer.UserState toSyncState = OneSignalStateSynchronizer.getNewUserState();
+
+      JSONObject tags = new JSONObject();
+      for (int i = 0; i < tagCount; i++)
+         tags.put("tag_key_" + i, "tag_value_" + i);
+      for (OneSignalStateSynchronizer.UserState state : new OneSignalStateSynchronizer.UserState[] {currentState, toSyncState}) {
+         state.set("app_id", "b2f7f966-d8cc-11e4-bed1-df8f05be55ba");
+         state.set("identifier", "APA91bHbYHk7aq-Uam_2pyJ2qbZvqllyyh2wjfPRaw5gLEX2SUlQBRvOc6sck1sa7H7nGeLNlDco8lXj83HWWwzV");
+         state.set("device_os", "7.0");
+         state.set("pkgs", new org.json.JSONArray("[\"com.example.one\", \"com.example.two\"]"));
+         state.set("tags", new JSONObject(tags.toString()));
+      }
+
+      toSyncState.takeDirtyKeys();
+      toSyncState.mergeChanges(new JSONObject().put("tags", new JSONObject().put("tag_key_5", "changed")));
+      OneSignalStateSynchronizer.DirtyKeys dirtyKeys = toSyncState.takeDirtyKeys();
+
+      UserStateDiffResult result = new UserStateDiffResult();
+      result.fullDiff = currentState.generateJsonDiff(toSyncState, false, null).toString();
+      result.dirtyDiff = currentState.generateJsonDiff(toSyncState, false, dirtyKeys).toString();
+      result.syncKeysCompared = dirtyKeys.syncKeys.size();
+      result.tagKeysCompared = dirtyKeys.tagKeys.size();
+      return result;
+   }
+
    public static void resetRunnables() {
       for (Map.Entry<Integer, OneSignalStateSynchronizer.NetworkHandlerThread> handlerThread : OneSignalStateSynchronizer.networkHandlerThreads.entrySet())
          handlerThread.getValue().stopScheduledRunnable();
@@ -60,11 +253,118 @@ public class OneSignalPackagePrivateHelper {
    }
 
    public static boolean GcmBroadcastReceiver_processBundle(Context context, Bundle bundle) {
-      return NotificationBundleProcessor.processBundle(context, bundle);
+      return NotificationBundleProcessor.processBundle(context, bundle) == null;
    }
 
    public static int NotificationBundleProcessor_Process(Context context, boolean restoring, JSONObject jsonPayload, NotificationExtenderService.OverrideSettings overrideSettings) {
-      return NotificationBundleProcessor.Process(context, restoring, jsonPayload, overrideSettings);
+      return NotificationBundleProcessor.Process(context, restoring, NotificationMessage.fromJson(jsonPayload), overrideSettings);
+   }
+
+   public static class RestResponse {
+      public boolean success;
+      public int statusCode;
+      public String body;
+      public JSONObject jsonBody;
+   }
+
+   private static OneSignalRestClient.ResponseHandler newRestResponseHandler(final RestResponse restResponse) {
+      return new OneSignalRestClient.ResponseHandler() {
+         @Override
+         void onSuccess(String response) {
+            restResponse.success = true;
+            restResponse.statusCode = 200;
+            restResponse.body = response;
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            restResponse.statusCode = statusCode;
+            restResponse.body = response;
+         }
+      };
+   }
+
+   public static RestResponse OneSignalRestClient_getSync(String url) {
+      RestResponse restResponse = new RestResponse();
+      OneSignalRestClient.getSync(url, newRestResponseHandler(restResponse));
+      return restResponse;
+   }
+
+   public static RestResponse OneSignalRestClient_getSyncJSON(String url) {
+      final RestResponse restResponse = new RestResponse();
+      OneSignalRestClient.getSync(url, new OneSignalRestClient.JSONResponseHandler() {
+         @Override
+         void onSuccess(JSONObject response) {
+            restResponse.success = true;
+            restResponse.statusCode = 200;
+            restResponse.jsonBody = response;
+         }
+
+         @Override
+         void onFailure(int statusCode, String response, Throwable throwable) {
+            restResponse.statusCode = statusCode;
+            restResponse.body = response;
+         }
+      });
+      return restResponse;
+   }
+
+   public static RestResponse OneSignalRestClient_putSync(String url, JSONObject jsonBody) {
+      RestResponse restResponse = new RestResponse();
+      OneSignalRestClient.putSync(url, jsonBody, newRestResponseHandler(restResponse));
+      return restResponse;
+   }
+
+   public static void OneSignalRestClient_setBaseUrl(String baseUrl) {
+      OneSignalRestClient.BASE_URL = baseUrl;
+   }
+
+   public static void OneSignalRestClient_setKeepAliveEnabled(boolean enabled) {
+      OneSignalRestClient.keepAliveEnabled = enabled;
+   }
+
+   public static void OneSignalRestClient_setCompressRequests(boolean enabled) {
+      OneSignalRestClient.compressRequests = enabled;
+   }
+
+   public static boolean OneSignalRestClient_shouldCompressRequests() {
+      return OneSignalRestClient.shouldCompressRequests();
+   }
+
+   // Returns {rawBytesSent, wireBytesSent, rawBytesReceived, wireBytesReceived}
+   public static long[] OneSignalRestClient_getEndpointByteCounts(String endpoint) {
+      OneSignalRestClient.EndpointByteCounts counts = OneSignalRestClient.getEndpointByteCounts().get(endpoint);
+      if (counts == null)
+         return null;
+      return new long[] {counts.rawBytesSent, counts.wireBytesSent, counts.rawBytesReceived, counts.wireBytesReceived};
+   }
+
+   public static void OneSignalRestClient_resetEndpointByteCounts() {
+      OneSignalRestClient.resetEndpointByteCounts();
+   }
+
+   public static class RequestExecutor {
+      private final OneSignalRestClient.RequestExecutor executor;
+
+      public RequestExecutor(int workerCount, int maxQueuedRequests) {
+         executor = new OneSignalRestClient.RequestExecutor(workerCount, maxQueuedRequests);
+      }
+
+      public void execute(Runnable request) {
+         executor.execute(request);
+      }
+
+      public int getQueueDepth() {
+         return executor.getQueueDepth();
+      }
+
+      public int getInFlightCount() {
+         return executor.getInFlightCount();
+      }
+
+      public int getRejectedCount() {
+         return executor.getRejectedCount();
+      }
    }
 
    public class NotificationTable extends OneSignalDbContract.NotificationTable { }
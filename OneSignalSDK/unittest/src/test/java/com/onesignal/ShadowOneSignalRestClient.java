@@ -37,6 +37,7 @@ public class ShadowOneSignalRestClient {
    public static String lastUrl;
    public static Thread testThread;
    public static boolean failNext, failAll;
+   public static int failHttpCode = 400;
    public static String failResponse = "{}", nextSuccessResponse, nextSuccessfulGETResponse;
    public static int networkCallCount;
 
@@ -67,7 +68,7 @@ public class ShadowOneSignalRestClient {
 
    private static boolean doFail(OneSignalRestClient.ResponseHandler responseHandler) {
       if (failNext || failAll) {
-         responseHandler.onFailure(400, failResponse, new Exception());
+         responseHandler.onFailure(failHttpCode, failResponse, new Exception());
          safeInterrupt();
          failNext = false;
          return true;
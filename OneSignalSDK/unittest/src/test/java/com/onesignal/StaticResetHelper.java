@@ -44,6 +44,73 @@ public class StaticResetHelper {
             return false;
          }
       }));
+
+      classes.add(new StaticResetHelper().new ClassState(OutboundRequestQueue.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationOpenedReporter.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(UserStateStore.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(OneSignalPrefs.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationIdFilter.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(BadgeCountUpdater.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationRetention.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(OneSignalDbExecutor.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationImageCache.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationMediaPrefetcher.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
+      classes.add(new StaticResetHelper().new ClassState(NotificationGroupIndex.class, new OtherFieldHandler() {
+         @Override
+         public boolean onOtherField(Field field) {
+            return false;
+         }
+      }));
    }
 
    private interface OtherFieldHandler {
@@ -108,6 +175,11 @@ public class StaticResetHelper {
    }
 
    public static void restSetStaticFields() {
+      // Pending preference writes would have been flushed by the app going away.
+      OneSignalPrefs.flush();
+      // Final maps, not reset below.
+      NotificationResourceCache.clear();
+
       for(ClassState aClass : classes) {
          try {
             aClass.restSetStaticFields();
@@ -30,6 +30,7 @@ package com.test.onesignal;
 import android.app.Activity;
 import android.app.Notification;
 import android.app.NotificationManager;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
@@ -40,7 +41,6 @@ import android.os.Bundle;
 
 import com.onesignal.BuildConfig;
 import com.onesignal.GcmBroadcastReceiver;
-import com.onesignal.GcmIntentService;
 import com.onesignal.NotificationExtenderService;
 import com.onesignal.NotificationOpenedProcessor;
 import com.onesignal.OSNotificationPayload;
@@ -59,6 +59,11 @@ import com.onesignal.OneSignalPackagePrivateHelper.NotificationRestorer;
 
 import junit.framework.Assert;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -70,11 +75,18 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.Shadows;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBitmapFactory;
 import org.robolectric.shadows.ShadowLog;
 import org.robolectric.shadows.ShadowSystemClock;
 import org.robolectric.util.ServiceController;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.Map;
 
 import static com.onesignal.OneSignalPackagePrivateHelper.NotificationBundleProcessor_ProcessFromGCMIntentService;
@@ -215,6 +227,8 @@ public class GenerateNotificationRunner {
       // First opened should of been cleaned up, 1 week old non opened notification should stay, and one new record.
       bundle = getBaseNotifBundle("UUID3");
       NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      // Old records are cleaned up in the background after the insert.
+      OneSignalPackagePrivateHelper.runNotificationRetentionRunnables();
       readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
       cursor = readableDb.query(NotificationTable.TABLE_NAME, new String[] { "android_notification_id", "created_time" }, null, null, null, null, null);
 
@@ -224,23 +238,268 @@ public class GenerateNotificationRunner {
       cursor.close();
    }
 
+   @Test
+   public void shouldCapNotificationRecordsAtSavedMaxCount() throws Exception {
+      OneSignalPackagePrivateHelper.NotificationRetention_saveLimits(blankActivity, 7 * 24 * 60 * 60, 3);
+      // Simulate a process started by a push that never calls init.
+      StaticResetHelper.restSetStaticFields();
+
+      for (int i = 0; i < 5; i++)
+         NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle("UUID" + i), null);
+      OneSignalPackagePrivateHelper.runNotificationRetentionRunnables();
+
+      // Newest 3 are kept.
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      Cursor cursor = readableDb.query(NotificationTable.TABLE_NAME, new String[] { NotificationTable.COLUMN_NAME_NOTIFICATION_ID }, null, null, null, null, NotificationTable._ID + " ASC");
+      Assert.assertEquals(3, cursor.getCount());
+      cursor.moveToFirst();
+      Assert.assertEquals("UUID2", cursor.getString(0));
+      cursor.close();
+   }
+
+   @Test
+   public void shouldPruneOldNotificationRecordsInBatches() throws Exception {
+      SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(blankActivity).getWritableDatabase();
+      for (int i = 0; i < 120; i++) {
+         ContentValues values = new ContentValues();
+         values.put(NotificationTable.COLUMN_NAME_NOTIFICATION_ID, "UUID" + i);
+         values.put(NotificationTable.COLUMN_NAME_OPENED, 1);
+         values.put(NotificationTable.COLUMN_NAME_MESSAGE, "Old message");
+         values.put(NotificationTable.COLUMN_NAME_CREATED_TIME, 0);
+         writableDb.insert(NotificationTable.TABLE_NAME, null, values);
+      }
+
+      OneSignalPackagePrivateHelper.NotificationRetention_schedule(blankActivity);
+
+      // One batch per run, the next is posted after a pause.
+      OneSignalPackagePrivateHelper.runNextNotificationRetentionRunnable();
+      Assert.assertEquals(50, OneSignalPackagePrivateHelper.NotificationRetention_getPrunedCount());
+      Assert.assertEquals(70, getNotificationRecordCount());
+
+      OneSignalPackagePrivateHelper.runNotificationRetentionRunnables();
+      Assert.assertEquals(120, OneSignalPackagePrivateHelper.NotificationRetention_getPrunedCount());
+      Assert.assertEquals(0, getNotificationRecordCount());
+   }
+
+   private int getNotificationRecordCount() {
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      Cursor cursor = readableDb.query(NotificationTable.TABLE_NAME, null, null, null, null, null, null);
+      int count = cursor.getCount();
+      cursor.close();
+      return count;
+   }
+
+   @Test
+   public void shouldSkipDatabaseForNewNotificationIds() throws Exception {
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle("UUID1"), null);
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle("UUID2"), null);
+      Assert.assertEquals(2, OneSignalPackagePrivateHelper.NotificationIdFilter_getAvoidedLookupCount());
+
+      // A duplicate still has to be confirmed by the database and is dropped.
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle("UUID1"), null);
+      Assert.assertEquals(2, OneSignalPackagePrivateHelper.NotificationIdFilter_getAvoidedLookupCount());
+
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      Cursor cursor = readableDb.query(NotificationTable.TABLE_NAME, null, null, null, null, null, null);
+      Assert.assertEquals(2, cursor.getCount());
+      cursor.close();
+   }
+
+   @Test
+   public void shouldQueueNotificationWritesBehindTheCurrentWriter() throws Exception {
+      final CountDownLatch writing = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      Thread writer = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            OneSignalPackagePrivateHelper.OneSignalDbExecutor_write(blankActivity, new Runnable() {
+               @Override
+               public void run() {
+                  writing.countDown();
+                  try {
+                     release.await();
+                  } catch (InterruptedException e) {}
+               }
+            });
+         }
+      });
+      writer.start();
+      writing.await();
+
+      // Let the first write finish once the notification insert is waiting on it.
+      new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (!OneSignalPackagePrivateHelper.OneSignalDbExecutor_hasQueuedWriters())
+                  Thread.sleep(10);
+            } catch (InterruptedException e) {}
+            release.countDown();
+         }
+      }).start();
+
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle(), null);
+      writer.join();
+
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.OneSignalDbExecutor_getContendedWriteCount());
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      Cursor cursor = readableDb.query(NotificationTable.TABLE_NAME, null, null, null, null, null, null);
+      Assert.assertEquals(1, cursor.getCount());
+      cursor.close();
+   }
+
+   @Test
+   public void shouldServeRepeatedNotificationImagesFromCache() throws Exception {
+      File image = File.createTempFile("onesignal_test", ".png");
+      FileOutputStream outputStream = new FileOutputStream(image);
+      outputStream.write(new byte[] { (byte)0x89, 'P', 'N', 'G' });
+      outputStream.close();
+      String location = image.toURI().toURL().toString();
+
+      Assert.assertNotNull(OneSignalPackagePrivateHelper.NotificationImageCache_get(blankActivity, location, 64, 64));
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationImageCache_getDownloadCount());
+
+      Assert.assertNotNull(OneSignalPackagePrivateHelper.NotificationImageCache_get(blankActivity, location, 64, 64));
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationImageCache_getMemoryHitCount());
+
+      // Process restarted, the copy on disk is still fresh.
+      OneSignalPackagePrivateHelper.NotificationImageCache_clearMemory();
+      Assert.assertNotNull(OneSignalPackagePrivateHelper.NotificationImageCache_get(blankActivity, location, 64, 64));
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationImageCache_getDiskHitCount());
+
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationImageCache_getDownloadCount());
+      Assert.assertEquals(2f / 3f, OneSignalPackagePrivateHelper.NotificationImageCache_getHitRate(), 0.001f);
+      image.delete();
+   }
+
+   @Test
+   public void shouldShowTextOnlyWhenImagesMissDeadline() throws Exception {
+      // Holds every image request until the test is done.
+      final CountDownLatch releaseResponses = new CountDownLatch(1);
+      HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            try {
+               releaseResponses.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {}
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+         }
+      });
+      server.start();
+      OneSignalPackagePrivateHelper.NotificationMediaPrefetcher_setDeadline(200);
+
+      try {
+         Bundle bundle = getBaseNotifBundle();
+         bundle.putString("bicon", "http://127.0.0.1:" + server.getAddress().getPort() + "/big_picture.png");
+         NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+
+         // Shown while the server is still holding the image.
+         Assert.assertEquals(1, releaseResponses.getCount());
+         Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationMediaPrefetcher_getDeadlineMissedCount());
+         Notification notification = ShadowRoboNotificationManager.notifications.get(ShadowRoboNotificationManager.lastNotifId).notif;
+         Assert.assertEquals(notifMessage, ShadowRoboNotificationManager.getLastShadowNotif().getContentText());
+         Assert.assertNull(notification.extras.get(Notification.EXTRA_PICTURE));
+      } finally {
+         releaseResponses.countDown();
+         server.stop(0);
+      }
+   }
+
+   @Test
+   public void shouldDecodeNotificationImagesWithinMemoryBudget() throws Exception {
+      // About 11MB each if decoded at full size.
+      ShadowBitmapFactory.provideWidthAndHeightHints(android.R.drawable.ic_dialog_alert, 2000, 1500);
+      Bundle bundle = getBaseNotifBundle();
+      bundle.putString("licon", "ic_dialog_alert");
+      bundle.putString("bicon", "ic_dialog_alert");
+
+      long decodedBefore = OneSignalPackagePrivateHelper.NotificationImageDecoder_getDecodedByteCount();
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      long decodedBytes = OneSignalPackagePrivateHelper.NotificationImageDecoder_getDecodedByteCount() - decodedBefore;
+
+      Assert.assertNotNull(ShadowRoboNotificationManager.notifications.get(ShadowRoboNotificationManager.lastNotifId).notif.largeIcon);
+      Assert.assertTrue("Decoded " + decodedBytes + " bytes for one notification", decodedBytes > 0 && decodedBytes < 1024 * 1024);
+   }
+
+   @Test
+   public void shouldResolveNotificationResourcesOnlyOnce() throws Exception {
+      Bundle bundle = getBaseNotifBundle("UUID1");
+      bundle.putString("sicon", "ic_dialog_alert");
+      bundle.putString("licon", "ic_dialog_alert");
+      bundle.putString("sound", "custom_sound");
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      int missCount = OneSignalPackagePrivateHelper.NotificationResourceCache_getMissCount();
+
+      // Same names, found and not found, are answered from the cache.
+      bundle = getBaseNotifBundle("UUID2");
+      bundle.putString("sicon", "ic_dialog_alert");
+      bundle.putString("licon", "ic_dialog_alert");
+      bundle.putString("sound", "custom_sound");
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      Assert.assertEquals(missCount, OneSignalPackagePrivateHelper.NotificationResourceCache_getMissCount());
+      Assert.assertEquals(2, ShadowRoboNotificationManager.notifications.size());
+   }
+
+   private static String queryPlan(SQLiteDatabase db, String sql, String[] args) {
+      Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+      StringBuilder plan = new StringBuilder();
+      while (cursor.moveToNext())
+         plan.append(cursor.getString(cursor.getColumnCount() - 1)).append("\n");
+      cursor.close();
+      return plan.toString();
+   }
+
+   @Test
+   public void shouldUseIndexesForNotificationQueries() throws Exception {
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      String[] groupArgs = { "test1" };
+
+      // Summary notification children, NotificationOpenedProcessor and GenerateNotification
+      String plan = queryPlan(readableDb, "SELECT android_notification_id FROM notification WHERE group_id = ? AND dismissed = 0 AND opened = 0 AND is_summary = 0", groupArgs);
+      Assert.assertTrue(plan, plan.contains("COVERING INDEX notification_group_unread_idx"));
+      plan = queryPlan(readableDb, "SELECT _id, android_notification_id, is_summary, title, message FROM notification WHERE group_id = ? AND dismissed = 0 AND opened = 0 ORDER BY _id DESC", groupArgs);
+      Assert.assertTrue(plan, plan.contains("INDEX notification_group_unread_idx"));
+
+      // NotificationRestorer
+      plan = queryPlan(readableDb, "SELECT _id, android_notification_id FROM notification WHERE created_time > 0 AND dismissed = 0 AND opened = 0 AND is_summary = 0 ORDER BY _id ASC", null);
+      Assert.assertTrue(plan, plan.contains("INDEX notification_unread_created_time_idx"));
+
+      // BadgeCountUpdater
+      plan = queryPlan(readableDb, "SELECT COUNT(*) FROM notification WHERE dismissed = 0 AND opened = 0 AND is_summary = 0", null);
+      Assert.assertTrue(plan, plan.contains("COVERING INDEX notification_unread_created_time_idx"));
+
+      // Duplicate check
+      plan = queryPlan(readableDb, "SELECT notification_id FROM notification WHERE notification_id = ?", groupArgs);
+      Assert.assertTrue(plan, plan.contains("INDEX notification_notification_id_idx"));
+   }
+
    @Test
    public void shouldRestoreNotifications() throws Exception {
       NotificationRestorer.restore(blankActivity); NotificationRestorer.restored = false;
 
       NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, getBaseNotifBundle(), null);
 
+      int androidNotificationId = ShadowRoboNotificationManager.lastNotifId;
+      ShadowRoboNotificationManager.notifications.clear();
+
+      // Rendered in process with the same id, no service is started.
       NotificationRestorer.restore(blankActivity); NotificationRestorer.restored = false;
-      Intent intent = Shadows.shadowOf(blankActivity).getNextStartedService();
-      Assert.assertEquals(GcmIntentService.class.getName(), intent.getComponent().getClassName());
+      Assert.assertNull(Shadows.shadowOf(blankActivity).getNextStartedService());
+      Assert.assertEquals(1, ShadowRoboNotificationManager.notifications.size());
+      Assert.assertEquals(androidNotificationId, ShadowRoboNotificationManager.lastNotifId);
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationRestorer_getLastRestoreCount());
+      ShadowRoboNotificationManager.notifications.clear();
 
       // Go forward 1 week
       // Note: Does not effect the SQL function strftime
       ShadowSystemClock.setCurrentTimeMillis(System.currentTimeMillis() + 604801L * 1000L);
 
-      // Restorer should not fire service since the notification is over 1 week old.
+      // Restorer should not display anything since the notification is over 1 week old.
       NotificationRestorer.restore(blankActivity); NotificationRestorer.restored = false;
-      Assert.assertNull(Shadows.shadowOf(blankActivity).getNextStartedService());
+      Assert.assertEquals(0, ShadowRoboNotificationManager.notifications.size());
    }
 
    @Test
@@ -327,6 +586,73 @@ public class GenerateNotificationRunner {
       cursor.close();
    }
 
+   @Test
+   public void shouldUpdateGroupSummaryWithoutRereadingTheGroup() throws Exception {
+      int rebuildCount = OneSignalPackagePrivateHelper.NotificationGroupIndex_getRebuildCount();
+      Bundle bundle = null;
+      for (int i = 1; i <= 9; i++) {
+         bundle = getBaseNotifBundle("UUID" + i);
+         bundle.putString("grp", "test1");
+         NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      }
+      Assert.assertEquals("9 new messages", getGroupSummary().getShadow().getContentText());
+
+      // Open the newest child, its line is replaced by the next oldest.
+      Intent intent = createOpenIntent(ShadowRoboNotificationManager.lastNotifId, bundle).putExtra("grp", "test1");
+      NotificationOpenedProcessor.processFromActivity(blankActivity, intent);
+      Assert.assertEquals("8 new messages", getGroupSummary().getShadow().getContentText());
+
+      // Only the first notification of the group read it from the notification table.
+      Assert.assertEquals(rebuildCount + 1, OneSignalPackagePrivateHelper.NotificationGroupIndex_getRebuildCount());
+
+      SQLiteDatabase readableDb = OneSignalDbHelper.getInstance(blankActivity).getReadableDatabase();
+      Cursor cursor = readableDb.rawQuery("SELECT count, lines FROM notification_group WHERE group_id = 'test1'", null);
+      Assert.assertTrue(cursor.moveToFirst());
+      Assert.assertEquals(8, cursor.getInt(0));
+      Assert.assertEquals(7, new JSONArray(cursor.getString(1)).length());
+      cursor.close();
+   }
+
+   @Test
+   public void shouldDropGroupChangesOfRolledBackWrites() throws Exception {
+      Bundle bundle = getBaseNotifBundle();
+      bundle.putString("grp", "test1");
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationGroupIndex_getCount(blankActivity, "test1"));
+
+      OneSignalPackagePrivateHelper.NotificationGroupIndex_addChildThenFail(blankActivity, "test1");
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationGroupIndex_getCount(blankActivity, "test1"));
+   }
+
+   @Test
+   public void shouldOnlyRebuildGroupsThatLostRecordsToRetention() throws Exception {
+      Bundle bundle = getBaseNotifBundle("UUID1");
+      bundle.putString("grp", "test1");
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+      bundle = getBaseNotifBundle("UUID2");
+      bundle.putString("grp", "test2");
+      NotificationBundleProcessor_ProcessFromGCMIntentService(blankActivity, bundle, null);
+
+      // Age out every record of test1 only.
+      SQLiteDatabase writableDb = OneSignalDbHelper.getInstance(blankActivity).getWritableDatabase();
+      writableDb.execSQL("UPDATE " + NotificationTable.TABLE_NAME + " SET " + NotificationTable.COLUMN_NAME_CREATED_TIME + " = 0 WHERE " + NotificationTable.COLUMN_NAME_GROUP_ID + " = 'test1'");
+      OneSignalPackagePrivateHelper.runNotificationRetentionRunnables();
+
+      int rebuildCount = OneSignalPackagePrivateHelper.NotificationGroupIndex_getRebuildCount();
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationGroupIndex_getCount(blankActivity, "test2"));
+      Assert.assertEquals(rebuildCount, OneSignalPackagePrivateHelper.NotificationGroupIndex_getRebuildCount());
+      Assert.assertEquals(0, OneSignalPackagePrivateHelper.NotificationGroupIndex_getCount(blankActivity, "test1"));
+      Assert.assertEquals(rebuildCount + 1, OneSignalPackagePrivateHelper.NotificationGroupIndex_getRebuildCount());
+   }
+
+   private static PostedNotification getGroupSummary() {
+      for (PostedNotification postedNotification : ShadowRoboNotificationManager.notifications.values()) {
+         if ((postedNotification.notif.flags & Notification.FLAG_GROUP_SUMMARY) != 0)
+            return postedNotification;
+      }
+      return null;
+   }
+
 
 
    @Test
@@ -355,6 +681,29 @@ public class GenerateNotificationRunner {
       Assert.assertEquals("id1", additionalData.getJSONArray("actionButtons").getJSONObject(0).getString("id"));
    }
 
+   @Test
+   public void shouldParseEachNotificationOncePerProcess() throws Exception {
+      Intent intentGcm = new Intent();
+      intentGcm.setAction("com.google.android.c2dm.intent.RECEIVE");
+      intentGcm.putExtra("message_type", "gcm");
+      Bundle bundle = getBaseNotifBundle();
+      bundle.putString("o", "[{\"n\": \"text1\", \"i\": \"id1\"}, {\"n\": \"text2\", \"i\": \"id2\"}]");
+      bundle.putString("grp", "test1");
+      intentGcm.putExtras(bundle);
+
+      int buildCount = OneSignalPackagePrivateHelper.NotificationMessage_getBuildCount();
+      try {
+         new GcmBroadcastReceiver().onReceive(blankActivity, intentGcm);
+      } catch (java.lang.IllegalStateException e) {}
+      Assert.assertEquals(buildCount + 1, OneSignalPackagePrivateHelper.NotificationMessage_getBuildCount());
+
+      // Dedupe, save, display with buttons and group summary, and the received callback share the one message.
+      Intent intent = Shadows.shadowOf(blankActivity).getNextStartedService();
+      NotificationBundleProcessor_ProcessFromGCMIntentService_NoWrap(blankActivity, intent.getExtras(), null);
+      Assert.assertEquals(buildCount + 2, OneSignalPackagePrivateHelper.NotificationMessage_getBuildCount());
+      Assert.assertEquals(2, ShadowRoboNotificationManager.notifications.get(ShadowRoboNotificationManager.lastNotifId).notif.actions.length);
+   }
+
 
    @Test
    @Config(shadows = {ShadowOneSignal.class})
@@ -141,6 +141,7 @@ public class MainOneSignalClassRunner {
       ShadowOneSignalRestClient.nextSuccessResponse = null;
       ShadowOneSignalRestClient.failNext = false;
       ShadowOneSignalRestClient.failAll = false;
+      ShadowOneSignalRestClient.failHttpCode = 400;
       ShadowOneSignalRestClient.interruptibleDelayNext = false;
       ShadowOneSignalRestClient.networkCallCount = 0;
       ShadowOneSignalRestClient.testThread = Thread.currentThread();
@@ -295,6 +296,72 @@ public class MainOneSignalClassRunner {
       Assert.assertEquals("Robo test message", notificationOpenedMessage);
    }
 
+   @Test
+   public void testNotificationOpenedReplayedAfterNetworkError() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      OneSignal.handleNotificationOpen(blankActivity, new JSONArray("[{ \"alert\": \"Robo test message\", \"custom\": { \"i\": \"UUID\" } }]"), false);
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.OutboundRequestQueue_getQueuedRequestCount(blankActivity));
+
+      // Device is offline for the first attempt, sent again on the backed off retry.
+      ShadowOneSignalRestClient.failNext = true;
+      ShadowOneSignalRestClient.failHttpCode = 0;
+      int networkCallCountBefore = ShadowOneSignalRestClient.networkCallCount;
+      OneSignalPackagePrivateHelper.runOutboundRequestQueueRunnables();
+      Assert.assertEquals(networkCallCountBefore + 2, ShadowOneSignalRestClient.networkCallCount);
+      Assert.assertEquals("notifications/UUID", ShadowOneSignalRestClient.lastUrl);
+      Assert.assertTrue(ShadowOneSignalRestClient.lastPost.getBoolean("opened"));
+      Assert.assertEquals(0, OneSignalPackagePrivateHelper.OutboundRequestQueue_getQueuedRequestCount(blankActivity));
+   }
+
+   @Test
+   public void testNotificationOpenedNotReplayedAfterClientError() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      OneSignal.handleNotificationOpen(blankActivity, new JSONArray("[{ \"alert\": \"Robo test message\", \"custom\": { \"i\": \"UUID\" } }]"), false);
+      ShadowOneSignalRestClient.failNext = true;
+      OneSignalPackagePrivateHelper.runOutboundRequestQueueRunnables();
+      Assert.assertEquals(0, OneSignalPackagePrivateHelper.OutboundRequestQueue_getQueuedRequestCount(blankActivity));
+   }
+
+   @Test
+   public void testPostNotificationNotReplayedAfterNetworkError() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      // The server may have created the notification before the connection dropped, so it must not be sent again.
+      ShadowOneSignalRestClient.failNext = true;
+      ShadowOneSignalRestClient.failHttpCode = 0;
+      int networkCallCountBefore = ShadowOneSignalRestClient.networkCallCount;
+      OneSignal.postNotification(new JSONObject("{\"contents\": {\"en\": \"Test\"}}"), null);
+      threadAndTaskWait();
+      OneSignalPackagePrivateHelper.runOutboundRequestQueueRunnables();
+      Assert.assertEquals(networkCallCountBefore + 1, ShadowOneSignalRestClient.networkCallCount);
+      Assert.assertEquals(0, OneSignalPackagePrivateHelper.OutboundRequestQueue_getQueuedRequestCount(blankActivity));
+   }
+
+   @Test
+   public void testGroupOpenedReportedOncePerNotification() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      JSONArray groupData = new JSONArray("[{ \"alert\": \"Summary\" }," +
+                                          " { \"alert\": \"Message 1\", \"custom\": { \"i\": \"UUID1\" } }," +
+                                          " { \"alert\": \"Message 2\", \"custom\": { \"i\": \"UUID2\" } }," +
+                                          " { \"alert\": \"Message 2\", \"custom\": { \"i\": \"UUID2\" } }]");
+      int networkCallCountBefore = ShadowOneSignalRestClient.networkCallCount;
+      OneSignal.handleNotificationOpen(blankActivity, groupData, false);
+      Assert.assertEquals(networkCallCountBefore, ShadowOneSignalRestClient.networkCallCount);
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.NotificationOpenedReporter_getRequestsSavedCount());
+
+      OneSignalPackagePrivateHelper.runOutboundRequestQueueRunnables();
+      Assert.assertEquals(networkCallCountBefore + 2, ShadowOneSignalRestClient.networkCallCount);
+      Assert.assertEquals("notifications/UUID2", ShadowOneSignalRestClient.lastUrl);
+      Assert.assertEquals(0, OneSignalPackagePrivateHelper.OutboundRequestQueue_getQueuedRequestCount(blankActivity));
+   }
+
    @Test
    public void testAndroidParamsProjectNumberOverridesLocal() {
       OneSignalInit();
@@ -729,6 +796,99 @@ public class MainOneSignalClassRunner {
       Assert.assertEquals(normalCreateFieldCount, ShadowOneSignalRestClient.lastPost.length() - 1);
    }
 
+   @Test
+   public void testPlayerUpdateRetriedAfterServerError() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      ShadowOneSignalRestClient.failNext = true;
+      ShadowOneSignalRestClient.failHttpCode = 503;
+      int networkCallCountBefore = ShadowOneSignalRestClient.networkCallCount;
+      OneSignal.sendTag("key1", "value1");
+      threadAndTaskWait();
+
+      Assert.assertEquals(networkCallCountBefore + 2, ShadowOneSignalRestClient.networkCallCount);
+      Assert.assertEquals("value1", ShadowOneSignalRestClient.lastPost.getJSONObject("tags").getString("key1"));
+   }
+
+   @Test
+   public void testPlayerUpdateNotRetriedAfterClientError() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      ShadowOneSignalRestClient.failNext = true;
+      int networkCallCountBefore = ShadowOneSignalRestClient.networkCallCount;
+      OneSignal.sendTag("key1", "value1");
+      threadAndTaskWait();
+
+      Assert.assertEquals(networkCallCountBefore + 1, ShadowOneSignalRestClient.networkCallCount);
+   }
+
+   @Test
+   public void testUserStateDirtyDiffMatchesFullDiff() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      OneSignalPackagePrivateHelper.UserStateDiffResult result = OneSignalPackagePrivateHelper.diffUserStateWithOneChangedTag(500);
+
+      Assert.assertEquals(result.fullDiff, result.dirtyDiff);
+      Assert.assertEquals("changed", new JSONObject(result.dirtyDiff).getJSONObject("tags").getString("tag_key_5"));
+      Assert.assertEquals(1, new JSONObject(result.dirtyDiff).getJSONObject("tags").length());
+      // Only the changed tag is compared, not all 500.
+      Assert.assertEquals(1, result.syncKeysCompared);
+      Assert.assertEquals(1, result.tagKeysCompared);
+   }
+
+   @Test
+   public void testPreferenceWritesCoalescedUntilTaskRemoved() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+
+      int coalescedBefore = OneSignalPackagePrivateHelper.OneSignalPrefs_getCoalescedWriteCount();
+      OneSignal.enableVibrate(false);
+      OneSignal.enableSound(false);
+      Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignalPrefs_getCoalescedWriteCount() > coalescedBefore);
+
+      // Not written yet but already visible to the SDK.
+      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
+      Assert.assertFalse(prefs.contains("GT_SOUND_ENABLED"));
+      Assert.assertFalse(OneSignalPackagePrivateHelper.OneSignal_getSoundEnabled(blankActivity));
+
+      OneSignalPackagePrivateHelper.SyncService_onTaskRemoved();
+      Assert.assertFalse(prefs.getBoolean("GT_VIBRATE_ENABLED", true));
+      Assert.assertFalse(prefs.getBoolean("GT_SOUND_ENABLED", true));
+   }
+
+   @Test
+   public void testSavingNullPreferenceRemovesIt() throws Exception {
+      OneSignalPackagePrivateHelper.OneSignalPrefs_saveString(blankActivity, "GT_PLAYER_ID", "a1b2c3d4");
+      // Flushes and drops the in memory copy so the next read comes from disk.
+      StaticResetHelper.restSetStaticFields();
+
+      // Same as saveUserId(null) when the player is deleted from the server.
+      OneSignalPackagePrivateHelper.OneSignalPrefs_saveString(blankActivity, "GT_PLAYER_ID", null);
+      Assert.assertNull(OneSignalPackagePrivateHelper.OneSignalPrefs_getString(blankActivity, "GT_PLAYER_ID", null));
+      StaticResetHelper.restSetStaticFields();
+
+      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
+      Assert.assertFalse(prefs.contains("GT_PLAYER_ID"));
+      Assert.assertNull(OneSignalPackagePrivateHelper.OneSignalPrefs_getString(blankActivity, "GT_PLAYER_ID", null));
+   }
+
+   @Test
+   public void testPreferenceReadsServedFromMemory() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.OneSignalPrefs_getDiskReadCount());
+
+      for (int i = 0; i < 10; i++)
+         Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignal_getSoundEnabled(blankActivity));
+      OneSignal.enableSound(false);
+      Assert.assertFalse(OneSignalPackagePrivateHelper.OneSignal_getSoundEnabled(blankActivity));
+
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.OneSignalPrefs_getDiskReadCount());
+   }
+
    @Test
    public void testOfflineCrashes() throws Exception {
       ConnectivityManager connectivityManager = (ConnectivityManager)RuntimeEnvironment.application.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -855,6 +1015,25 @@ public class MainOneSignalClassRunner {
       Assert.assertNull(lastGetTags);
    }
 
+   @Test
+   public void testUserStatePersistsOnlyChangedFields() throws Exception {
+      OneSignalInit();
+      threadAndTaskWait();
+      OneSignal.sendTags("{\"key1\": \"value1\", \"key2\": \"value2\", \"key3\": \"value3\"}");
+      threadAndTaskWait();
+
+      OneSignal.sendTag("key1", "value1.5");
+      threadAndTaskWait();
+      Assert.assertEquals(1, OneSignalPackagePrivateHelper.UserStateStore_getLastFieldsWritten());
+
+      // Simulate a cold start, state should be read back from the user_state table.
+      StaticResetHelper.restSetStaticFields();
+      JSONObject tags = OneSignalPackagePrivateHelper.UserStateStore_load(blankActivity, "CURRENT_STATE")[1].getJSONObject("tags");
+      Assert.assertEquals("value1.5", tags.getString("key1"));
+      Assert.assertEquals("value2", tags.getString("key2"));
+      Assert.assertEquals("value3", tags.getString("key3"));
+   }
+
    @Test
    public void testSendTagNonStringValues() throws Exception {
       OneSignalInit();
@@ -955,6 +1134,20 @@ public class MainOneSignalClassRunner {
       Assert.assertEquals("value", ShadowOneSignalRestClient.lastPost.getJSONObject("tags").getString("key"));
    }
 
+   @Test
+   public void shouldUseSavedRequestCompressionFromSyncService() throws Exception {
+      OneSignal.startInit(blankActivity).enableRequestCompression(true).init();
+      threadAndTaskWait();
+
+      // Simulate a new process that never calls init.
+      StaticResetHelper.restSetStaticFields();
+      Assert.assertFalse(OneSignalPackagePrivateHelper.OneSignalRestClient_shouldCompressRequests());
+
+      Robolectric.buildService(SyncService.class).create().get();
+      threadAndTaskWait();
+      Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignalRestClient_shouldCompressRequests());
+   }
+
    @Test
    public void shouldNotCrashIfOnTaskRemovedIsCalledBeforeInitIsDone() {
       OneSignalPackagePrivateHelper.SyncService_onTaskRemoved();
@@ -1010,9 +1203,8 @@ public class MainOneSignalClassRunner {
       // Delete all other tags, the 'tags' key should not exists in local storage.
       OneSignal.deleteTags(Arrays.asList("bool", "str"));
       threadAndTaskWait();
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-      String syncValues = prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null);
-      Assert.assertFalse(new JSONObject(syncValues).has("tags"));
+      JSONObject syncValues = OneSignalPackagePrivateHelper.UserStateStore_load(blankActivity, "CURRENT_STATE")[1];
+      Assert.assertFalse(syncValues.has("tags"));
    }
 
 
@@ -1033,8 +1225,7 @@ public class MainOneSignalClassRunner {
 
       Assert.assertNull(lastGetTags);
 
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-      JSONObject syncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+      JSONObject syncValues = OneSignalPackagePrivateHelper.UserStateStore_load(blankActivity, "CURRENT_STATE")[1];
       Assert.assertFalse(syncValues.has("tags"));
    }
 
@@ -1283,12 +1474,11 @@ public class MainOneSignalClassRunner {
       String baseKey = "pkgs";
       Assert.assertEquals(1, ShadowOneSignalRestClient.lastPost.getJSONArray(baseKey + "_a").length());
 
-      final SharedPreferences prefs = blankActivity.getSharedPreferences(OneSignal.class.getSimpleName(), Context.MODE_PRIVATE);
-      JSONObject syncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_CURRENT_STATE", null));
+      JSONObject syncValues = OneSignalPackagePrivateHelper.UserStateStore_load(blankActivity, "CURRENT_STATE")[1];
       Assert.assertFalse(syncValues.has(baseKey + "_a"));
       Assert.assertEquals(1, syncValues.getJSONArray(baseKey).length());
 
-      JSONObject toSyncValues = new JSONObject(prefs.getString("ONESIGNAL_USERSTATE_SYNCVALYES_TOSYNC_STATE", null));
+      JSONObject toSyncValues = OneSignalPackagePrivateHelper.UserStateStore_load(blankActivity, "TOSYNC_STATE")[1];
       Assert.assertFalse(toSyncValues.has(baseKey + "_a"));
       Assert.assertEquals(1, toSyncValues.getJSONArray(baseKey).length());
 
@@ -0,0 +1,348 @@
+/**
+ * Modified MIT License
+ *
+ * Copyright 2016 OneSignal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * 1. The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * 2. All copies of substantial portions of the Software may only be used in connection
+ * with services provided by OneSignal.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.test.onesignal;
+
+import com.onesignal.BuildConfig;
+import com.onesignal.OneSignalPackagePrivateHelper;
+import com.onesignal.OneSignalPackagePrivateHelper.RestResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Runs OneSignalRestClient against a local HTTP server standing in for onesignal.com.
+@Config(packageName = "com.onesignal.example",
+      constants = BuildConfig.class,
+      instrumentedPackages = {"com.onesignal"},
+      sdk = 21)
+@RunWith(RobolectricTestRunner.class)
+public class RESTClientRunner {
+
+   private static final String ORIGINAL_BASE_URL = "https://onesignal.com/api/v1/";
+
+   private HttpServer server;
+   // Remote port of each client socket the server accepted a request on.
+   private final Set<Integer> clientPorts = new HashSet<>();
+   private int nextResponseCode;
+   private String nextResponseBody;
+   private String lastRequestBody;
+   private String lastRequestContentEncoding;
+
+   @BeforeClass // Runs only once, before any tests
+   public static void setUpClass() throws Exception {
+      ShadowLog.stream = System.out;
+   }
+
+   @Before // Before each test
+   public void beforeEachTest() throws Exception {
+      nextResponseCode = 200;
+      nextResponseBody = "{}";
+      clientPorts.clear();
+
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/", new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            synchronized (clientPorts) {
+               clientPorts.add(exchange.getRemoteAddress().getPort());
+            }
+
+            lastRequestContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream requestBody = exchange.getRequestBody();
+            if ("gzip".equals(lastRequestContentEncoding))
+               requestBody = new GZIPInputStream(requestBody);
+            ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+            int b;
+            while ((b = requestBody.read()) != -1)
+               requestBytes.write(b);
+            requestBody.close();
+            lastRequestBody = requestBytes.toString("UTF-8");
+
+            byte[] response = nextResponseBody.getBytes("UTF-8");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+               ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+               GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBytes);
+               gzipStream.write(response);
+               gzipStream.close();
+               response = gzipBytes.toByteArray();
+               exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(nextResponseCode, response.length);
+            OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(response);
+            responseBody.close();
+         }
+      });
+      server.start();
+
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setKeepAliveEnabled(true);
+      OneSignalPackagePrivateHelper.OneSignalRestClient_resetEndpointByteCounts();
+   }
+
+   @After
+   public void afterEachTest() {
+      server.stop(0);
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setBaseUrl(ORIGINAL_BASE_URL);
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setKeepAliveEnabled(true);
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setCompressRequests(false);
+   }
+
+   @Test
+   public void shouldReuseConnectionBetweenRequests() throws Exception {
+      for (int i = 0; i < 3; i++) {
+         RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_getSync("players/a2f7f967");
+         Assert.assertTrue(response.success);
+         Assert.assertEquals("{}", response.body);
+      }
+      RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_putSync("players/a2f7f967", new JSONObject().put("app_id", "b2f7f966"));
+      Assert.assertTrue(response.success);
+
+      // All four requests came from the same client socket.
+      Assert.assertEquals(1, clientPorts.size());
+   }
+
+   @Test
+   public void shouldReuseConnectionAfterErrorResponse() throws Exception {
+      nextResponseCode = 400;
+      nextResponseBody = "{\"errors\": [\"No user with this id found\"]}";
+      RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_putSync("players/a2f7f967", new JSONObject().put("app_id", "b2f7f966"));
+      Assert.assertFalse(response.success);
+      Assert.assertEquals(400, response.statusCode);
+      Assert.assertEquals(nextResponseBody, response.body);
+
+      nextResponseCode = 200;
+      nextResponseBody = "{}";
+      Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignalRestClient_getSync("players/a2f7f967").success);
+
+      Assert.assertEquals(1, clientPorts.size());
+   }
+
+   @Test
+   public void shouldOpenNewConnectionsWhenKeepAliveDisabled() throws Exception {
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setKeepAliveEnabled(false);
+
+      for (int i = 0; i < 3; i++)
+         Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignalRestClient_getSync("players/a2f7f967").success);
+
+      Assert.assertEquals(3, clientPorts.size());
+   }
+
+   private static JSONObject largePlayerUpdate() throws Exception {
+      JSONObject tags = new JSONObject();
+      for (int i = 0; i < 100; i++)
+         tags.put("tag_key_" + i, "tag_value_" + i);
+      return new JSONObject().put("app_id", "b2f7f966-d8cc-11e4-bed1-df8f05be55ba").put("tags", tags);
+   }
+
+   @Test
+   public void shouldGzipLargeRequestBodiesWhenEnabled() throws Exception {
+      OneSignalPackagePrivateHelper.OneSignalRestClient_setCompressRequests(true);
+      nextResponseBody = largePlayerUpdate().toString();
+
+      JSONObject playerUpdate = largePlayerUpdate();
+      RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_putSync("players/a2f7f967-e8cc-11e4-bed1-118f05be4511", playerUpdate);
+      Assert.assertTrue(response.success);
+      Assert.assertEquals(nextResponseBody, response.body);
+
+      Assert.assertEquals("gzip", lastRequestContentEncoding);
+      Assert.assertEquals(playerUpdate.toString(), lastRequestBody);
+
+      long[] byteCounts = OneSignalPackagePrivateHelper.OneSignalRestClient_getEndpointByteCounts("players/:id");
+      Assert.assertEquals(playerUpdate.toString().length(), byteCounts[0]);
+      Assert.assertTrue(byteCounts[1] < byteCounts[0]);
+      Assert.assertEquals(nextResponseBody.length(), byteCounts[2]);
+      Assert.assertTrue(byteCounts[3] < byteCounts[2]);
+   }
+
+   @Test
+   public void shouldNotGzipRequestBodiesByDefault() throws Exception {
+      JSONObject playerUpdate = largePlayerUpdate();
+      Assert.assertTrue(OneSignalPackagePrivateHelper.OneSignalRestClient_putSync("players/a2f7f967-e8cc-11e4-bed1-118f05be4511", playerUpdate).success);
+
+      Assert.assertNull(lastRequestContentEncoding);
+      Assert.assertEquals(playerUpdate.toString(), lastRequestBody);
+
+      long[] byteCounts = OneSignalPackagePrivateHelper.OneSignalRestClient_getEndpointByteCounts("players/:id");
+      Assert.assertEquals(byteCounts[0], byteCounts[1]);
+   }
+
+   @Test
+   public void shouldStreamJSONResponseToJSONHandler() throws Exception {
+      nextResponseBody = "{\"id\": \"a2f7f967\", \"session_count\": 3, \"amount_spent\": 1.5, \"last_active\": 1473792600000, " +
+                         "\"invalid_identifier\": false, \"ad_id\": null, \"tags\": {\"key1\": \"value1\"}, \"pkgs\": [1, \"two\"]}";
+
+      // Twice so the second response is read through the same kept alive socket and read buffer.
+      for (int i = 0; i < 2; i++) {
+         RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_getSyncJSON("players/a2f7f967");
+         Assert.assertTrue(response.success);
+         Assert.assertEquals(new JSONObject(nextResponseBody).toString(), response.jsonBody.toString());
+         Assert.assertEquals(3, response.jsonBody.get("session_count"));
+         Assert.assertEquals(1473792600000L, response.jsonBody.get("last_active"));
+         Assert.assertTrue(response.jsonBody.isNull("ad_id"));
+      }
+      Assert.assertEquals(1, clientPorts.size());
+   }
+
+   @Test
+   public void shouldPassErrorBodyAsStringToJSONHandler() throws Exception {
+      nextResponseCode = 400;
+      nextResponseBody = "{\"errors\": [\"No user with this id found\"]}";
+
+      RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_getSyncJSON("players/a2f7f967");
+      Assert.assertFalse(response.success);
+      Assert.assertEquals(400, response.statusCode);
+      Assert.assertEquals(nextResponseBody, response.body);
+   }
+
+   @Test
+   public void shouldNotFailAcceptedRequestWithUnparsableBody() throws Exception {
+      // The server accepted the request, a body that isn't JSON must not turn it into a retried failure.
+      for (String body : new String[] { "<html>Bad Gateway</html>", "" }) {
+         nextResponseBody = body;
+         RestResponse response = OneSignalPackagePrivateHelper.OneSignalRestClient_getSyncJSON("apps/b2f7f966/android_params.js");
+         Assert.assertTrue(response.success);
+         Assert.assertEquals(200, response.statusCode);
+         Assert.assertEquals(0, response.jsonBody.length());
+      }
+   }
+
+   // Takes up a worker until the latch is released.
+   private static Runnable blockingRequest(final CountDownLatch started, final CountDownLatch release) {
+      return new Runnable() {
+         @Override
+         public void run() {
+            started.countDown();
+            try {
+               release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {}
+         }
+      };
+   }
+
+   private static Runnable threadRecordingRequest(final AtomicReference<Thread> ranOn, final CountDownLatch done) {
+      return new Runnable() {
+         @Override
+         public void run() {
+            ranOn.set(Thread.currentThread());
+            done.countDown();
+         }
+      };
+   }
+
+   @Test
+   public void shouldQueueRequestsBehindBusyWorkers() throws Exception {
+      OneSignalPackagePrivateHelper.RequestExecutor executor = new OneSignalPackagePrivateHelper.RequestExecutor(1, 2);
+      CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+      executor.execute(blockingRequest(started, release));
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      AtomicReference<Thread> ranOn = new AtomicReference<>();
+      CountDownLatch done = new CountDownLatch(2);
+      executor.execute(threadRecordingRequest(ranOn, done));
+      executor.execute(threadRecordingRequest(ranOn, done));
+      Assert.assertEquals(2, executor.getQueueDepth());
+      Assert.assertEquals(1, executor.getInFlightCount());
+      Assert.assertEquals(0, executor.getRejectedCount());
+
+      release.countDown();
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertTrue(ranOn.get().getName().startsWith("OneSignalRestClient-"));
+      Assert.assertEquals(0, executor.getQueueDepth());
+   }
+
+   @Test
+   public void shouldRunRejectedRequestOnCallingThread() throws Exception {
+      final OneSignalPackagePrivateHelper.RequestExecutor executor = new OneSignalPackagePrivateHelper.RequestExecutor(1, 1);
+      CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+      executor.execute(blockingRequest(started, release));
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      executor.execute(blockingRequest(new CountDownLatch(1), release));
+
+      // Queue is full, a background caller runs the request itself.
+      final AtomicReference<Thread> ranOn = new AtomicReference<>();
+      final CountDownLatch done = new CountDownLatch(1);
+      Thread caller = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            executor.execute(threadRecordingRequest(ranOn, done));
+         }
+      });
+      caller.start();
+      caller.join(5000);
+
+      Assert.assertEquals(0, done.getCount());
+      Assert.assertSame(caller, ranOn.get());
+      Assert.assertEquals(1, executor.getRejectedCount());
+      release.countDown();
+   }
+
+   @Test
+   public void shouldRunRejectedRequestOnNewThreadFromMainThread() throws Exception {
+      OneSignalPackagePrivateHelper.RequestExecutor executor = new OneSignalPackagePrivateHelper.RequestExecutor(1, 1);
+      CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+      executor.execute(blockingRequest(started, release));
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+      executor.execute(blockingRequest(new CountDownLatch(1), release));
+
+      // Robolectric runs the test on the main thread, which must never block on the network.
+      AtomicReference<Thread> ranOn = new AtomicReference<>();
+      CountDownLatch done = new CountDownLatch(1);
+      executor.execute(threadRecordingRequest(ranOn, done));
+
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertNotSame(Thread.currentThread(), ranOn.get());
+      Assert.assertFalse(ranOn.get().getName().startsWith("OneSignalRestClient-"));
+      Assert.assertEquals(1, executor.getRejectedCount());
+      release.countDown();
+   }
+}